@@ -54,4 +54,24 @@ public class MegaDBindingConstants {
     public static final String CHANNEL_CONTACT = "contact";
     public static final String CHANNEL_SMS_PHONE = "smsphone";
     public static final String CHANNEL_SMS_TEXT = "smstext";
+
+    // List of all bridge Channel ids
+    public static final String CHANNEL_ACCEPT_RATE = "acceptrate";
+    public static final String CHANNEL_OPEN_CONNECTIONS = "openconnections";
+    public static final String CHANNEL_REJECTED_CONNECTIONS = "rejectedconnections";
+    public static final String CHANNEL_TIMED_OUT_REQUESTS = "timedoutrequests";
+    public static final String CHANNEL_OVERSIZED_REQUESTS = "oversizedrequests";
+    public static final String CHANNEL_INVALID_REQUESTS = "invalidrequests";
+    public static final String CHANNEL_PARSE_TIME = "parsetime";
+    public static final String CHANNEL_LATENCY_P50 = "latencyp50";
+    public static final String CHANNEL_LATENCY_P95 = "latencyp95";
+    public static final String CHANNEL_LATENCY_P99 = "latencyp99";
+    public static final String CHANNEL_UNKNOWN_DEVICES = "unknowndevices";
+    public static final String CHANNEL_PARSE_FAILURES = "parsefailures";
+    public static final String CHANNEL_QUEUE_DEPTH = "queuedepth";
+    public static final String CHANNEL_DROPPED_EVENTS = "droppedevents";
+    public static final String CHANNEL_SUPPRESSED_EVENTS = "suppressedevents";
+    public static final String CHANNEL_SUPPRESSED_UPDATES = "suppressedupdates";
+    public static final String CHANNEL_POLL_LAG = "polllag";
+    public static final String CHANNEL_SKIPPED_POLLS = "skippedpolls";
 }
@@ -26,4 +26,96 @@ public class MegaDConfiguration {
      * Sample configuration parameter. Replace with your own.
      */
     public Integer port = 0;
+
+    /**
+     * Number of listening sockets, each served by its own thread.
+     */
+    public Integer listeners = 1;
+
+    /**
+     * Let all listeners share the port with SO_REUSEPORT where supported, otherwise they use consecutive ports.
+     */
+    public Boolean reusePort = true;
+
+    /**
+     * Handle every incoming connection on its own thread instead of the shared selector.
+     */
+    public Boolean threadPerCallback = false;
+
+    /**
+     * Keep incoming connections open for further requests.
+     */
+    public Boolean keepAlive = false;
+
+    /**
+     * Seconds an idle persistent connection stays open.
+     */
+    public Integer keepAliveTimeout = 15;
+
+    /**
+     * Number of threads passing events to the handlers, 0 for one per processor.
+     */
+    public Integer dispatchThreads = 0;
+
+    /**
+     * Milliseconds a request may take to arrive, counted from its first byte or from accepting the connection.
+     */
+    public Integer readTimeout = 5000;
+
+    /**
+     * Maximum length of a request line or header, longer requests are rejected.
+     */
+    public Integer maxLineLength = 1024;
+
+    /**
+     * Maximum number of open incoming connections of all listeners, further connections are closed at once.
+     */
+    public Integer maxConnections = 256;
+
+    /**
+     * Number of events queued between the server and the handlers, per dispatch thread.
+     */
+    public Integer queueCapacity = 1024;
+
+    /**
+     * What to do with incoming events when the queue is full, see
+     * {@link org.openhab.binding.megad.internal.MegaDOverflowPolicy}.
+     */
+    public String overflowPolicy = "BLOCK";
+
+    /**
+     * Poll the status of all ports of a controller with one request instead of one request per thing. Off by
+     * default, as not every firmware answers "cmd=all".
+     */
+    public Boolean bulkPolling = false;
+
+    /**
+     * Skip polls of a status the controller pushed within the poll interval.
+     */
+    public Boolean adaptivePolling = true;
+
+    /**
+     * Milliseconds port commands to one controller are collected and sent as one request, 0 to send them at once.
+     */
+    public Integer batchWindow = 0;
+
+    /**
+     * Maximum length of the query of a request carrying several port commands.
+     */
+    public Integer maxCommandLength = 200;
+
+    /**
+     * Failed requests in a row after which a controller is considered unreachable, 0 to keep trying every request.
+     */
+    public Integer failureThreshold = 3;
+
+    /**
+     * Seconds between probes of an unreachable controller, doubled after every failed probe.
+     */
+    public Integer probeInterval = 5;
+
+    /**
+     * Seconds between updates of the bridge metrics channels, 0 to disable them.
+     */
+    public Integer metricsInterval = 60;
 }
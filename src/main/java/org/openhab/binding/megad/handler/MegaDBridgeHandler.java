@@ -12,27 +12,36 @@
  */
 package org.openhab.binding.megad.handler;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.HashMap;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
-import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.eclipse.smarthome.core.library.types.DecimalType;
 import org.eclipse.smarthome.core.thing.Bridge;
 import org.eclipse.smarthome.core.thing.ChannelUID;
 import org.eclipse.smarthome.core.thing.ThingStatus;
 import org.eclipse.smarthome.core.thing.binding.BaseBridgeHandler;
 import org.eclipse.smarthome.core.types.Command;
+import org.openhab.binding.megad.MegaDBindingConstants;
 import org.openhab.binding.megad.MegaDConfiguration;
+import org.openhab.binding.megad.internal.MegaDBlockingHttpServer;
+import org.openhab.binding.megad.internal.MegaDCallbackListener;
+import org.openhab.binding.megad.internal.MegaDEvent;
+import org.openhab.binding.megad.internal.MegaDEventParser;
+import org.openhab.binding.megad.internal.MegaDHttpClient;
+import org.openhab.binding.megad.internal.MegaDHttpServer;
+import org.openhab.binding.megad.internal.MegaDOverflowPolicy;
+import org.openhab.binding.megad.internal.MegaDServer;
+import org.openhab.binding.megad.internal.MegaDServerStats;
+import org.openhab.binding.megad.internal.MegaDSocketOptions;
+import org.openhab.binding.megad.internal.MegaDTimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,24 +58,28 @@ public class MegaDBridgeHandler extends BaseBridgeHandler {
     private Logger logger = LoggerFactory.getLogger(MegaDBridgeHandler.class);
 
     private boolean isConnect = false;
-    private int port;
+    private MegaDConfiguration configuration = new MegaDConfiguration();
     @Nullable
     private ScheduledFuture<?> pollingJob;
+    private volatile MegaDServer[] servers = new MegaDServer[0];
+    private volatile @Nullable MegaDEventDispatcher dispatcher;
+    private final MegaDBridgeMetrics metrics = new MegaDBridgeMetrics();
+    private final MegaDServerStats serverStats = new MegaDServerStats();
     @Nullable
-    Socket s = null;
-    @Nullable
-    private ServerSocket ss;
-    @Nullable
-    private InputStream is;
-    @Nullable
-    private OutputStream os;
-    private boolean isRunning = true;
+    private ScheduledFuture<?> metricsJob;
+    private long lastMetricsUpdate;
+    private long lastAcceptedConnections;
+    private long lastPolls;
+    private long lastSkippedPolls;
     private int refreshInterval = 300;
-    @Nullable
-    MegaDHandler megaDHandler;
+    private final ThreadLocal<MegaDEvent> parsedEvents = ThreadLocal.withInitial(MegaDEvent::new);
+    private final ThreadLocal<MegaDEvent> bulkEvents = ThreadLocal.withInitial(MegaDEvent::new);
+    private final Map<String, MegaDBulkPoller> bulkPollers = new ConcurrentHashMap<>();
+    private final MegaDTimingWheel pollWheel;
 
-    public MegaDBridgeHandler(Bridge bridge) {
+    public MegaDBridgeHandler(Bridge bridge, MegaDTimingWheel pollWheel) {
         super(bridge);
+        this.pollWheel = pollWheel;
     }
 
     @Override
@@ -87,52 +100,142 @@ public class MegaDBridgeHandler extends BaseBridgeHandler {
         }
     }
 
-    private @Nullable Map<String, MegaDHandler> thingHandlerMap = new HashMap<String, MegaDHandler>();
+    private final MegaDRoutingTable routingTable = new MegaDRoutingTable();
 
     @SuppressWarnings({ "null", "unused" })
     public void registerMegadThingListener(MegaDHandler thingHandler) {
-        String thingID = thingHandler.getThing().getConfiguration().get("hostname").toString() + "."
-                + thingHandler.getThing().getConfiguration().get("port").toString();
+        String hostname = thingHandler.getThing().getConfiguration().get("hostname").toString();
+        String port = thingHandler.getThing().getConfiguration().get("port").toString();
+        String thingID = hostname + "." + port;
 
-        if (thingHandlerMap.get(thingID) != null) {
-            thingHandlerMap.remove(thingID);
-        }
         logger.debug("thingHandler for thing: '{}'", thingID);
-        if (thingHandlerMap.get(thingID) == null) {
-            thingHandlerMap.put(thingID, thingHandler);
-            logger.debug("register thingHandler for thing: {}", thingHandler);
-            updateThingHandlerStatus(thingHandler, this.getStatus());
-            if (thingID.equals("localhost.")) {
-                updateThingHandlerStatus(thingHandler, ThingStatus.OFFLINE);
-            }
-            // sendSocketData("get " + thingID);
-        } else {
-            logger.debug("thingHandler for thing: '{}' already registerd", thingID);
-            updateThingHandlerStatus(thingHandler, this.getStatus());
+        if (routingTable.register(hostname, port, thingHandler) != null) {
+            logger.debug("thingHandler for thing: '{}' replaced", thingID);
+        }
+        logger.debug("register thingHandler for thing: {}", thingHandler);
+        updateThingHandlerStatus(thingHandler, this.getStatus());
+        if (thingID.equals("localhost.")) {
+            updateThingHandlerStatus(thingHandler, ThingStatus.OFFLINE);
         }
+        updateBulkPoller(hostname, thingHandler);
     }
 
     @SuppressWarnings({ "null", "unused" })
     public void unregisterThingListener(@Nullable MegaDHandler thingHandler) {
         if (thingHandler != null) {
-            String thingID = thingHandler.getThing().getConfiguration().get("hostname").toString() + "."
-                    + thingHandler.getThing().getConfiguration().get("port").toString();
-            if (thingHandlerMap.remove(thingID) == null) {
-                logger.debug("thingHandler for thing: {} not registered", thingID);
+            String hostname = thingHandler.getThing().getConfiguration().get("hostname").toString();
+            String port = thingHandler.getThing().getConfiguration().get("port").toString();
+            if (!routingTable.unregister(hostname, port, thingHandler)) {
+                logger.debug("thingHandler for thing: {}.{} not registered", hostname, port);
             } else {
                 updateThingHandlerStatus(thingHandler, ThingStatus.OFFLINE);
             }
+            updateBulkPoller(hostname, thingHandler);
         }
     }
 
+    /**
+     * @return true if the port of the thing is polled with the "cmd=all" request of its controller, so the thing
+     *         only needs to poll what the bulk status does not contain
+     */
+    @SuppressWarnings("null")
+    public boolean isBulkPolled(MegaDHandler thingHandler) {
+        String hostname = thingHandler.getThing().getConfiguration().get("hostname").toString();
+        String port = thingHandler.getThing().getConfiguration().get("port").toString();
+        return configuration.bulkPolling && !thingHandler.isPortPollRequired()
+                && bulkPollers.containsKey(MegaDRoutingTable.normalizeHost(hostname))
+                && routingTable.isRouted(hostname, port, thingHandler);
+    }
+
+    /**
+     * Polls the controller as often as the thing with the shortest refresh interval asks for.
+     */
+    private synchronized void updateBulkPoller(String hostname, MegaDHandler thingHandler) {
+        String host = MegaDRoutingTable.normalizeHost(hostname);
+        long interval = 0;
+        @Nullable
+        MegaDHttpClient client = null;
+        if (configuration.bulkPolling) {
+            for (MegaDHandler handler : routingTable.getAll(routingTable.controllerId(host))) {
+                if (handler.isPortPollRequired()) {
+                    // polls its port by itself
+                    continue;
+                }
+                long refresh = handler.getRefreshInterval();
+                if (refresh > 0 && (interval == 0 || refresh < interval)) {
+                    interval = refresh;
+                }
+                MegaDHttpClient handlerClient = handler.getHttpClient();
+                if (handlerClient != null) {
+                    client = handlerClient;
+                }
+            }
+        }
+        MegaDBulkPoller poller = bulkPollers.get(host);
+        if (poller != null && (interval == 0 || poller.getClient() != client)) {
+            // no thing left to poll for, or the things use another password now
+            poller.close();
+            bulkPollers.remove(host);
+            poller = null;
+        }
+        if (interval == 0 || client == null) {
+            return;
+        }
+        if (poller == null) {
+            poller = new MegaDBulkPoller(host, client.retain(), pollWheel, scheduler, this::bulkStatusReceived,
+                    () -> configuration.adaptivePolling);
+            bulkPollers.put(host, poller);
+        }
+        poller.start(TimeUnit.SECONDS.toMillis(interval));
+    }
+
+    /**
+     * Passes a polled bulk status to the handlers the way a pushed one is.
+     */
+    private void bulkStatusReceived(String hostname, String status) {
+        int controllerId = routingTable.controllerId(hostname);
+        if (controllerId == MegaDCallbackListener.UNKNOWN_CONTROLLER) {
+            return;
+        }
+        byte[] line = ("GET /?all=" + status).getBytes(StandardCharsets.US_ASCII);
+        MegaDEvent event = parsedEvents.get();
+        if (!MegaDEventParser.parse(line, line.length, event)) {
+            return;
+        }
+        event.setReceivedNanos(System.nanoTime());
+        event.setPolled(true);
+        route(hostname, controllerId, event);
+    }
+
+    /**
+     * Called after a command was sent to the port of the thing, so the next bulk push updates its channels even
+     * if the controller reports the same state as before.
+     */
+    @SuppressWarnings("null")
+    public void invalidatePortState(MegaDHandler thingHandler) {
+        String hostname = thingHandler.getThing().getConfiguration().get("hostname").toString();
+        String port = thingHandler.getThing().getConfiguration().get("port").toString();
+        routingTable.invalidatePortState(hostname, port);
+    }
+
+    /**
+     * @return number of events dropped by the debounce and rate limits of the things
+     */
+    public long getSuppressedEvents() {
+        long suppressed = 0;
+        for (MegaDHandler handler : routingTable.getAll()) {
+            suppressed += handler.getEventFilter().getSuppressed();
+        }
+        return suppressed;
+    }
+
     private void updateThingHandlerStatus(MegaDHandler thingHandler, ThingStatus status) {
         thingHandler.updateStatus(status);
     }
 
-    @SuppressWarnings("null")
     private void updateThingHandlersStatus(ThingStatus status) {
-        for (Map.Entry<String, MegaDHandler> entry : thingHandlerMap.entrySet()) {
-            updateThingHandlerStatus(entry.getValue(), status);
+        for (MegaDHandler handler : routingTable.getAll()) {
+            updateThingHandlerStatus(handler, status);
         }
     }
 
@@ -140,12 +243,15 @@ public class MegaDBridgeHandler extends BaseBridgeHandler {
         return getThing().getStatus();
     }
 
+    public MegaDConfiguration getBridgeConfiguration() {
+        return configuration;
+    }
+
     @Override
     public void initialize() {
         logger.debug("Initializing Megad bridge handler {}", this.toString());
 
-        MegaDConfiguration configuration = getConfigAs(MegaDConfiguration.class);
-        port = configuration.port;
+        configuration = getConfigAs(MegaDConfiguration.class);
 
         // updateStatus(ThingStatus.ONLINE);
 
@@ -158,243 +264,247 @@ public class MegaDBridgeHandler extends BaseBridgeHandler {
         if (pollingJob == null || pollingJob.isCancelled()) {
             pollingJob = scheduler.scheduleWithFixedDelay(pollingRunnable, 0, refreshInterval, TimeUnit.SECONDS);
         }
+        if (configuration.metricsInterval > 0 && (metricsJob == null || metricsJob.isCancelled())) {
+            lastMetricsUpdate = System.nanoTime();
+            metricsJob = scheduler.scheduleWithFixedDelay(this::updateMetrics, configuration.metricsInterval,
+                    configuration.metricsInterval, TimeUnit.SECONDS);
+        }
     }
 
     private Runnable pollingRunnable = new Runnable() {
-        @SuppressWarnings("null")
         @Override
         public void run() {
             logger.debug("Polling job called");
-            try {
-                ss = new ServerSocket(port);
-
-                ss.setPerformancePreferences(1, 0, 0);
-                ss.setReuseAddress(true);
+            MegaDServer[] runningServers = servers;
+            if (runningServers.length > 0 && isRunning(runningServers)) {
+                return;
+            }
+            closeServers();
+            String threadName = "OH-binding-" + getThing().getUID();
+            MegaDEventDispatcher eventDispatcher = dispatcher;
+            if (eventDispatcher == null) {
+                eventDispatcher = new MegaDEventDispatcher(configuration.dispatchThreads, configuration.queueCapacity,
+                        MegaDOverflowPolicy.parse(configuration.overflowPolicy), MegaDBridgeHandler.this::dispatchEvent,
+                        threadName + "-dispatcher");
+                eventDispatcher.start();
+                dispatcher = eventDispatcher;
+            } else {
+                logger.debug("Event queue depth {}, dropped events {}, debounced events {}",
+                        eventDispatcher.getQueueDepth(), eventDispatcher.getDropped(), getSuppressedEvents());
+            }
+            MegaDCallbackListener listener = new MegaDCallbackListener() {
+                @Override
+                public int resolveController(String hostAddress) {
+                    return routingTable.controllerId(hostAddress);
+                }
 
-                logger.info("MegaD bridge opened port {}", ss.getLocalPort());
-                isRunning = true;
+                @Override
+                public void callbackReceived(String hostAddress, int controllerId, byte[] requestLine, int length,
+                        long receivedNanos) {
+                    parseInput(hostAddress, controllerId, requestLine, length, receivedNanos);
+                }
+            };
+            int count = Math.max(1, configuration.listeners);
+            // several listeners share the port if the system allows it, otherwise they take consecutive ports
+            boolean reusePort = count > 1 && configuration.reusePort && MegaDSocketOptions.isReusePortAvailable();
+            MegaDServer[] openedServers = new MegaDServer[count];
+            try {
+                for (int i = 0; i < count; i++) {
+                    int port = reusePort || configuration.port == 0 ? configuration.port : configuration.port + i;
+                    String suffix = count > 1 ? "-" + i : "";
+                    MegaDServer server;
+                    if (configuration.threadPerCallback) {
+                        server = new MegaDBlockingHttpServer(configuration, port, reusePort, serverStats, listener,
+                                threadName + "-callback" + suffix);
+                    } else {
+                        server = new MegaDHttpServer(configuration, port, reusePort, serverStats, listener);
+                    }
+                    server.open();
+                    openedServers[i] = server;
+                    logger.info("MegaD bridge opened port {}", server.getLocalPort());
+                }
+                for (int i = 0; i < count; i++) {
+                    Thread serverThread = new Thread(openedServers[i],
+                            threadName + "-server" + (count > 1 ? "-" + i : ""));
+                    serverThread.setDaemon(true);
+                    serverThread.start();
+                }
+                servers = openedServers;
                 updateStatus(ThingStatus.ONLINE);
             } catch (IOException e) {
+                for (MegaDServer server : openedServers) {
+                    if (server != null) {
+                        server.close();
+                    }
+                }
                 logger.error("ERROR! Cannot open port: {}", e.getMessage());
                 updateStatus(ThingStatus.OFFLINE);
             }
-
-            while (isRunning) {
-                try {
-                    s = ss != null ? ss.accept() : null;
-                } catch (IOException e) {
-                    logger.error("ERROR in bridge. Incoming server has error: {}", e.getMessage());
-                }
-                if (!ss.isClosed()) {
-                    new Thread(startHttpSocket());
-                }
-            }
         }
-
     };
 
-    @SuppressWarnings("null")
-    protected @Nullable Runnable startHttpSocket() {
-        try {
-            s.setKeepAlive(false);
-            s.setReuseAddress(true);
-            s.setTcpNoDelay(true);
-            this.is = s.getInputStream();
-            this.os = s.getOutputStream();
-        } catch (IOException e) {
-            logger.error("{}", e.getLocalizedMessage());
+    private static boolean isRunning(MegaDServer[] servers) {
+        for (MegaDServer server : servers) {
+            if (!server.isRunning()) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        String input = readInput();
-        writeResponse();
-        parseInput(input);
-        return null;
+    private void closeServers() {
+        MegaDServer[] openedServers = servers;
+        servers = new MegaDServer[0];
+        for (MegaDServer server : openedServers) {
+            server.close();
+        }
     }
 
-    private String readInput() {
-        BufferedReader br = new BufferedReader(new InputStreamReader(is));
-        String string = "";
-        try {
-            string = br.readLine();
-        } catch (IOException e) {
-            logger.error("{}", e.getLocalizedMessage());
+    private void parseInput(String remoteAddress, int knownControllerId, byte[] requestLine, int length,
+            long receivedNanos) {
+        long parseStart = System.nanoTime();
+        MegaDEvent event = parsedEvents.get();
+        if (!MegaDEventParser.parse(requestLine, length, event)) {
+            metrics.recordParseFailure();
+            return;
+        }
+        event.setReceivedNanos(receivedNanos);
+        metrics.recordParse(System.nanoTime() - parseStart);
+        if (logger.isDebugEnabled()) {
+            logger.debug("incoming from Megad: {} {}", remoteAddress, event.getLine());
+        }
+        int controllerId = knownControllerId;
+        if (controllerId == MegaDCallbackListener.UNKNOWN_CONTROLLER) {
+            // things may have been added after the connection was accepted
+            controllerId = routingTable.controllerId(remoteAddress);
+            if (controllerId == MegaDCallbackListener.UNKNOWN_CONTROLLER) {
+                metrics.recordUnknownDevice();
+                logger.debug("No things configured for {}", remoteAddress);
+                return;
+            }
         }
+        route(remoteAddress, controllerId, event);
+    }
 
-        return string;
+    private void route(String remoteAddress, int controllerId, MegaDEvent event) {
+        MegaDEventDispatcher eventDispatcher = dispatcher;
+        if (eventDispatcher != null) {
+            eventDispatcher.dispatch(remoteAddress, controllerId, event);
+        } else {
+            dispatchEvent(remoteAddress, controllerId, event);
+        }
     }
 
-    @SuppressWarnings("null")
-    private void parseInput(@Nullable String s) {
-        String[] getCommands;
-        String thingID = " ", hostAddress;
-
-        if (!(s == null || s.trim().length() == 0)) {
-            if (s.contains("GET") && s.contains("?")) {
-                logger.debug("incoming from Megad: {} {}", this.s.getInetAddress().getHostAddress(), s);
-                String[] commandParse = s.split("[/ ]");
-                String command = commandParse[2];
-                getCommands = command.split("[?&>=]");
-
-                for (int i = 0; getCommands.length > i; i++) {
-                    logger.debug("{} value {}", i, getCommands[i]);
+    /**
+     * Passes an event to the handlers of its controller. Called on the dispatcher thread.
+     */
+    private void dispatchEvent(String remoteAddress, int controllerId, MegaDEvent event) {
+        switch (event.getType()) {
+            case BULK:
+                MegaDPortStateTable portStates = routingTable.getPortStates(controllerId);
+                if (portStates == null) {
+                    break;
                 }
-
-                if (s.contains("m=1")) {
-                    hostAddress = this.s.getInetAddress().getHostAddress();
-                    if (hostAddress.equals("0:0:0:0:0:0:0:1")) {
-                        hostAddress = "localhost";
-                    }
-                    thingID = hostAddress + "." + getCommands[2];
-                    megaDHandler = thingHandlerMap.get(thingID);
-                    if (megaDHandler != null) {
-                        megaDHandler.updateValues(hostAddress, getCommands, OnOffType.OFF);
-                    }
-                } else if (s.contains("click")) {
-                    hostAddress = this.s.getInetAddress().getHostAddress();
-                    if (hostAddress.equals("0:0:0:0:0:0:0:1")) {
-                        hostAddress = "localhost";
-                    }
-                    thingID = hostAddress + "." + getCommands[2];
-                    megaDHandler = thingHandlerMap.get(thingID);
-                    if (megaDHandler != null) {
-                        megaDHandler.updateValues(hostAddress, getCommands, null);
-                    }
-                } else if (s.contains("m=2")) {
-                    hostAddress = this.s.getInetAddress().getHostAddress();
-                    if (hostAddress.equals("0:0:0:0:0:0:0:1")) {
-                        hostAddress = "localhost";
-                    }
-                    thingID = hostAddress + "." + getCommands[2];
-                    megaDHandler = thingHandlerMap.get(thingID);
-                    if (megaDHandler != null) {
-                        megaDHandler.updateValues(hostAddress, getCommands, null);
-                    }
-                } else if (s.contains("all=")) {
-                    logger.debug("Loop incoming from Megad: {} {}", this.s.getInetAddress().getHostAddress(), s);
-
-                    getCommands = s.split("[= ]");
-                    if (getCommands.length > 4) {
-                        String[] parsedStatus = getCommands[3].split("[;]");
-                        for (int i = 0; parsedStatus.length > i; i++) {
-                            String[] mode = parsedStatus[i].split("[/]");
-                            if (mode[0].contains("ON")) {
-                                hostAddress = this.s.getInetAddress().getHostAddress();
-                                if (hostAddress.equals("0:0:0:0:0:0:0:1")) {
-                                    hostAddress = "localhost";
-                                }
-                                thingID = hostAddress + "." + i;
-                                megaDHandler = thingHandlerMap.get(thingID);
-                                if (megaDHandler != null) {
-                                    logger.debug("Updating: {} Value is: {}", thingID, mode);
-                                    megaDHandler.updateValues(hostAddress, parsedStatus, OnOffType.ON);
-                                }
-                            } else if (mode[0].contains("OFF")) {
-                                hostAddress = this.s.getInetAddress().getHostAddress();
-                                if (hostAddress.equals("0:0:0:0:0:0:0:1")) {
-                                    hostAddress = "localhost";
-                                }
-                                thingID = hostAddress + "." + i;
-                                megaDHandler = thingHandlerMap.get(thingID);
-                                if (megaDHandler != null) {
-                                    logger.debug("Updating: {} Value is: {}", thingID, mode);
-                                    megaDHandler.updateValues(hostAddress, parsedStatus, OnOffType.OFF);
-                                }
-                            } else {
-                                logger.debug("Not a switch");
-                            }
-                        }
-                    } else {
-                        String[] parsedStatus = getCommands[2].split("[;]");
-                        for (int i = 0; parsedStatus.length > i; i++) {
-                            String[] mode = parsedStatus[i].split("[/]");
-                            if (mode[0].contains("ON")) {
-                                hostAddress = this.s.getInetAddress().getHostAddress();
-                                if (hostAddress.equals("0:0:0:0:0:0:0:1")) {
-                                    hostAddress = "localhost";
-                                }
-                                thingID = hostAddress + "." + i;
-                                megaDHandler = thingHandlerMap.get(thingID);
-                                if (megaDHandler != null) {
-                                    logger.debug("Updating: {} Value is: {}", thingID, parsedStatus[i]);
-                                    megaDHandler.updateValues(hostAddress, mode, OnOffType.ON);
-                                }
-                            } else if (mode[0].contains("OFF")) {
-                                hostAddress = this.s.getInetAddress().getHostAddress();
-                                if (hostAddress.equals("0:0:0:0:0:0:0:1")) {
-                                    hostAddress = "localhost";
-                                }
-                                thingID = hostAddress + "." + i;
-                                megaDHandler = thingHandlerMap.get(thingID);
-                                if (megaDHandler != null) {
-                                    logger.debug("Updating: {} Value is: {}", thingID, mode);
-                                    megaDHandler.updateValues(hostAddress, mode, OnOffType.OFF);
-                                }
-                            } else {
-                                logger.debug("Not a switch");
-                            }
-                        }
-                    }
-                } else if (s.contains("v=")) {
-                    hostAddress = this.s.getInetAddress().getHostAddress();
-                    if (hostAddress.equals("0:0:0:0:0:0:0:1")) {
-                        hostAddress = "localhost";
-                    }
-                    thingID = hostAddress + "." + getCommands[2];
-
-                    megaDHandler = thingHandlerMap.get(thingID);
-                    if (megaDHandler != null) {
-                        if (s.contains("v=1")) {
-                            megaDHandler.updateValues(hostAddress, getCommands, OnOffType.ON);
-                        } else {
-                            megaDHandler.updateValues(hostAddress, getCommands, OnOffType.OFF);
-                        }
-                    }
-                } else {
-                    hostAddress = this.s.getInetAddress().getHostAddress();
-                    if (hostAddress.equals("0:0:0:0:0:0:0:1")) {
-                        hostAddress = "localhost";
-                    }
-                    if (getCommands[1].equals("pt")) {
-                        try {
-                            thingID = hostAddress + "." + getCommands[2];
-                        } catch (Exception e) {
-                            logger.warn("ERROR: {}", e.getLocalizedMessage());
-                        }
-                    } else if ((getCommands[1].equals("st")) || (getCommands[1].equals("sms_phone"))) {
-                        thingID = hostAddress;
-                        for (int i = 0; thingHandlerMap.size() > i; i++) {
-
-                            if (thingHandlerMap.keySet().toArray()[i].toString().contains(hostAddress)) {
-                                megaDHandler = thingHandlerMap.get(thingHandlerMap.keySet().toArray()[i].toString());
-                                if (megaDHandler != null) {
-                                    megaDHandler.updateValues(hostAddress, getCommands, null);
-                                }
-                            }
-                        }
-                    } else {
-                        thingID = hostAddress + "." + getCommands[1];
-                    }
-                    if (!thingID.equals(" ")) {
-                        megaDHandler = thingHandlerMap.get(thingID);
+                MegaDBulkPoller poller = bulkPollers.get(MegaDRoutingTable.normalizeHost(remoteAddress));
+                if (poller != null && !event.isPolled()) {
+                    poller.pushed();
+                }
+                MegaDEvent portEvent = bulkEvents.get();
+                int position = 0;
+                for (int port = 0; (position = MegaDEventParser.nextBulkPort(event, position, port,
+                        portEvent)) >= 0; port++) {
+                    if (!portStates.update(portEvent)) {
+                        continue;
                     }
+                    MegaDHandler megaDHandler = routingTable.get(controllerId, port);
                     if (megaDHandler != null) {
-                        megaDHandler.updateValues(hostAddress, getCommands, OnOffType.ON);
+                        logger.debug("Updating: {} Value is: {}", remoteAddress, portEvent);
+                        megaDHandler.getEventFilter().accept(portEvent);
                     }
                 }
-            }
+                break;
+            case STATUS:
+            case SMS:
+                for (MegaDHandler megaDHandler : routingTable.getAll(controllerId)) {
+                    megaDHandler.updateValues(event);
+                }
+                metrics.recordLatency(System.nanoTime() - event.getReceivedNanos());
+                break;
+            default:
+                MegaDPortStateTable states = routingTable.getPortStates(controllerId);
+                if (states != null) {
+                    // the port reported on its own, the next bulk push must not be taken as unchanged
+                    states.invalidate(event.getPort());
+                }
+                MegaDHandler megaDHandler = routingTable.get(controllerId, event.getPort());
+                if (megaDHandler != null) {
+                    megaDHandler.getEventFilter().accept(event);
+                }
+                break;
         }
     }
 
-    @SuppressWarnings("null")
-    private void writeResponse() {
-        String result = "HTTP/1.1 200 OK\r\n" + "Content-Type: text/html\r\n" + "Content-Length: " + 0 + "\r\n"
-                + "Connection: close\r\n\r\n";
-        try {
-            os.write(result.getBytes());
-            s.setSoLinger(true, 0);
-        } catch (IOException e) {
-            logger.error("{}", e.getLocalizedMessage());
+    /**
+     * @return the metrics the handlers record the latency of the events they receive to
+     */
+    MegaDBridgeMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void updateMetrics() {
+        long now = System.nanoTime();
+        long accepted = serverStats.getAccepted();
+        long newConnections = accepted - lastAcceptedConnections;
+        double seconds = (now - lastMetricsUpdate) / 1e9;
+        lastAcceptedConnections = accepted;
+        lastMetricsUpdate = now;
+        updateState(MegaDBindingConstants.CHANNEL_ACCEPT_RATE,
+                new DecimalType(BigDecimal.valueOf(seconds > 0 ? newConnections / seconds : 0).setScale(2,
+                        RoundingMode.HALF_UP)));
+        updateState(MegaDBindingConstants.CHANNEL_OPEN_CONNECTIONS,
+                new DecimalType(serverStats.getOpen()));
+        updateState(MegaDBindingConstants.CHANNEL_REJECTED_CONNECTIONS, new DecimalType(serverStats.getRejected()));
+        updateState(MegaDBindingConstants.CHANNEL_TIMED_OUT_REQUESTS, new DecimalType(serverStats.getTimedOut()));
+        updateState(MegaDBindingConstants.CHANNEL_OVERSIZED_REQUESTS, new DecimalType(serverStats.getOversized()));
+        updateState(MegaDBindingConstants.CHANNEL_INVALID_REQUESTS, new DecimalType(serverStats.getInvalid()));
+        // parse time in microseconds, latencies in milliseconds
+        updateState(MegaDBindingConstants.CHANNEL_PARSE_TIME,
+                new DecimalType(BigDecimal.valueOf(metrics.takeAverageParseNanos(), 3)));
+        long[] latencies = metrics.takeLatencyPercentiles(0.5, 0.95, 0.99);
+        updateState(MegaDBindingConstants.CHANNEL_LATENCY_P50, new DecimalType(BigDecimal.valueOf(latencies[0], 6)));
+        updateState(MegaDBindingConstants.CHANNEL_LATENCY_P95, new DecimalType(BigDecimal.valueOf(latencies[1], 6)));
+        updateState(MegaDBindingConstants.CHANNEL_LATENCY_P99, new DecimalType(BigDecimal.valueOf(latencies[2], 6)));
+        updateState(MegaDBindingConstants.CHANNEL_UNKNOWN_DEVICES, new DecimalType(metrics.getUnknownDevices()));
+        updateState(MegaDBindingConstants.CHANNEL_PARSE_FAILURES, new DecimalType(metrics.getParseFailures()));
+        MegaDEventDispatcher eventDispatcher = dispatcher;
+        updateState(MegaDBindingConstants.CHANNEL_QUEUE_DEPTH,
+                new DecimalType(eventDispatcher != null ? eventDispatcher.getQueueDepth() : 0));
+        updateState(MegaDBindingConstants.CHANNEL_DROPPED_EVENTS,
+                new DecimalType(eventDispatcher != null ? eventDispatcher.getDropped() : 0));
+        updateState(MegaDBindingConstants.CHANNEL_SUPPRESSED_EVENTS, new DecimalType(getSuppressedEvents()));
+        long suppressedUpdates = 0;
+        for (MegaDHandler handler : routingTable.getAll()) {
+            suppressedUpdates += handler.getSuppressedUpdates();
+        }
+        updateState(MegaDBindingConstants.CHANNEL_SUPPRESSED_UPDATES, new DecimalType(suppressedUpdates));
+        long polls = 0;
+        long skippedPolls = 0;
+        for (MegaDHandler handler : routingTable.getAll()) {
+            polls += handler.getPollGate().getPolls();
+            skippedPolls += handler.getPollGate().getSkipped();
         }
+        for (MegaDBulkPoller poller : bulkPollers.values()) {
+            polls += poller.getPollGate().getPolls();
+            skippedPolls += poller.getPollGate().getSkipped();
+        }
+        long newPolls = polls - lastPolls;
+        long newSkippedPolls = skippedPolls - lastSkippedPolls;
+        lastPolls = polls;
+        lastSkippedPolls = skippedPolls;
+        updateState(MegaDBindingConstants.CHANNEL_SKIPPED_POLLS, new DecimalType(BigDecimal
+                .valueOf(newPolls > 0 ? 100.0 * newSkippedPolls / newPolls : 0).setScale(1, RoundingMode.HALF_UP)));
+        updateState(MegaDBindingConstants.CHANNEL_POLL_LAG,
+                new DecimalType(BigDecimal.valueOf(pollWheel.takeMaxLagNanos(), 6)));
     }
 
     @SuppressWarnings("null")
@@ -406,11 +516,19 @@ public class MegaDBridgeHandler extends BaseBridgeHandler {
             pollingJob.cancel(true);
             pollingJob = null;
         }
-        isRunning = false;
-        try {
-            ss.close();
-        } catch (IOException e) {
-            logger.error("{}", e.getLocalizedMessage());
+        if (metricsJob != null) {
+            metricsJob.cancel(true);
+            metricsJob = null;
+        }
+        closeServers();
+        for (MegaDBulkPoller poller : bulkPollers.values()) {
+            poller.close();
+        }
+        bulkPollers.clear();
+        MegaDEventDispatcher eventDispatcher = dispatcher;
+        if (eventDispatcher != null) {
+            eventDispatcher.stop();
+            dispatcher = null;
         }
         updateStatus(ThingStatus.OFFLINE); // Set all State to offline
     }
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link MegaDBridgeMetrics} records what the bridge receives. Recording only increments striped counters, so
+ * it stays enabled; the values are read on the metrics interval of the bridge.
+ *
+ * Latencies go to a histogram with four buckets per power of two, giving percentiles within 25%.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+class MegaDBridgeMetrics {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int BUCKETS = 64 << SUB_BUCKET_BITS;
+
+    private final LongAdder parsed = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder parseFailures = new LongAdder();
+    private final LongAdder unknownDevices = new LongAdder();
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+
+    private final long[] lastLatencies = new long[BUCKETS];
+    private long lastParsed;
+    private long lastParseNanos;
+
+    void recordParse(long nanos) {
+        parsed.increment();
+        parseNanos.add(nanos);
+    }
+
+    void recordParseFailure() {
+        parseFailures.increment();
+    }
+
+    void recordUnknownDevice() {
+        unknownDevices.increment();
+    }
+
+    void recordLatency(long nanos) {
+        latencies.incrementAndGet(bucket(Math.max(1, nanos)));
+    }
+
+    long getParseFailures() {
+        return parseFailures.sum();
+    }
+
+    long getUnknownDevices() {
+        return unknownDevices.sum();
+    }
+
+    /**
+     * @return average parse time in nanoseconds since the last call
+     */
+    synchronized long takeAverageParseNanos() {
+        long count = parsed.sum();
+        long nanos = parseNanos.sum();
+        long result = count > lastParsed ? (nanos - lastParseNanos) / (count - lastParsed) : 0;
+        lastParsed = count;
+        lastParseNanos = nanos;
+        return result;
+    }
+
+    /**
+     * Computes latency percentiles of the events recorded since the last call.
+     *
+     * @param percentiles requested percentiles, e.g. 0.5 and 0.99
+     * @return upper bounds of the matching latencies in nanoseconds, 0 if nothing was recorded
+     */
+    synchronized long[] takeLatencyPercentiles(double... percentiles) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long current = latencies.get(i);
+            counts[i] = current - lastLatencies[i];
+            lastLatencies[i] = current;
+            total += counts[i];
+        }
+        long[] result = new long[percentiles.length];
+        if (total == 0) {
+            return result;
+        }
+        for (int p = 0; p < percentiles.length; p++) {
+            long rank = Math.max(1, (long) Math.ceil(percentiles[p] * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    result[p] = upperBound(i);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int bucket(long nanos) {
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        if (magnitude < SUB_BUCKET_BITS) {
+            return (int) nanos;
+        }
+        int sub = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+        return (magnitude << SUB_BUCKET_BITS) | sub;
+    }
+
+    private static long upperBound(int bucket) {
+        int magnitude = bucket >>> SUB_BUCKET_BITS;
+        if (magnitude < SUB_BUCKET_BITS) {
+            return bucket;
+        }
+        long sub = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+        return ((1L << SUB_BUCKET_BITS) + sub + 1) << (magnitude - SUB_BUCKET_BITS);
+    }
+}
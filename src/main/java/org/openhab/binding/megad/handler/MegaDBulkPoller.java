@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.megad.internal.MegaDHttpClient;
+import org.openhab.binding.megad.internal.MegaDTimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link MegaDBulkPoller} polls the status of all ports of a controller with one "cmd=all" request, instead of
+ * one "pt=N&cmd=get" request per thing. The response has the format of a bulk push and takes the same way to the
+ * handlers.
+ *
+ * Polls are skipped while the controller pushes its bulk status by itself, see {@link MegaDPollGate}.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+class MegaDBulkPoller {
+
+    static final String QUERY = "cmd=all";
+
+    private final Logger logger = LoggerFactory.getLogger(MegaDBulkPoller.class);
+
+    private final String hostname;
+    private final MegaDHttpClient client;
+    private final MegaDTimingWheel pollWheel;
+    private final ScheduledExecutorService scheduler;
+    private final BiConsumer<String, String> statusConsumer;
+    private final BooleanSupplier adaptive;
+    private final MegaDPollGate pollGate = new MegaDPollGate();
+
+    private long intervalMillis;
+    private boolean polling;
+    private MegaDTimingWheel.@Nullable Timeout pollingJob;
+
+    /**
+     * @param client reference to the client of the controller, released by {@link #close()}
+     * @param statusConsumer receives the host name and the status of all ports, e.g. "OFF;ON/12;255"
+     * @param adaptive tells whether polls may be skipped while the controller pushes
+     */
+    MegaDBulkPoller(String hostname, MegaDHttpClient client, MegaDTimingWheel pollWheel,
+            ScheduledExecutorService scheduler, BiConsumer<String, String> statusConsumer, BooleanSupplier adaptive) {
+        this.hostname = hostname;
+        this.client = client;
+        this.pollWheel = pollWheel;
+        this.scheduler = scheduler;
+        this.statusConsumer = statusConsumer;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Called when the controller pushed its bulk status.
+     */
+    void pushed() {
+        pollGate.pushed();
+    }
+
+    MegaDPollGate getPollGate() {
+        return pollGate;
+    }
+
+    MegaDHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Starts polling, or changes the interval if it differs from the current one.
+     */
+    synchronized void start(long intervalMillis) {
+        if (intervalMillis == this.intervalMillis && pollingJob != null) {
+            return;
+        }
+        stop();
+        this.intervalMillis = intervalMillis;
+        // controllers are spread like the things of one controller
+        pollingJob = pollWheel.scheduleAtFixedRate(this::poll, pollWheel.spread(QUERY, intervalMillis), intervalMillis,
+                scheduler);
+    }
+
+    synchronized void stop() {
+        MegaDTimingWheel.Timeout job = pollingJob;
+        if (job != null) {
+            job.cancel();
+            pollingJob = null;
+        }
+    }
+
+    /**
+     * Stops polling and gives back the reference to the client.
+     */
+    synchronized void close() {
+        stop();
+        client.release();
+    }
+
+    private void poll() {
+        synchronized (this) {
+            if (!pollGate.shouldPoll(TimeUnit.MILLISECONDS.toNanos(intervalMillis), adaptive.getAsBoolean())) {
+                return;
+            }
+            if (polling) {
+                // the previous request still waits for the controller
+                return;
+            }
+            polling = true;
+        }
+        client.getAsync(QUERY).whenComplete((status, error) -> {
+            synchronized (this) {
+                polling = false;
+            }
+            if (error != null) {
+                logger.debug("Bulk poll of megadevice {} failed: {}", hostname, error.getLocalizedMessage());
+            } else if (!status.isEmpty()) {
+                statusConsumer.accept(hostname, status);
+            }
+        });
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openhab.binding.megad.MegaDBindingConstants;
+import org.openhab.binding.megad.internal.MegaDEventType;
+
+/**
+ * The {@link MegaDChannelKind} tells how a channel of a thing is updated, and which events can update it.
+ *
+ * The events are those the channel took its state from before the table existed. Channels without a kind of their
+ * own, and "at", show the value of value reports and bulk statuses; the string based parsing before them updated
+ * every linked channel from a fixed position of whatever request arrived, e.g. "at" from the port number.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+enum MegaDChannelKind {
+    IN(MegaDBindingConstants.CHANNEL_IN, EnumSet.allOf(MegaDEventType.class)),
+    OUT(MegaDBindingConstants.CHANNEL_OUT, EnumSet.allOf(MegaDEventType.class)),
+    M2(MegaDBindingConstants.CHANNEL_M2, EnumSet.allOf(MegaDEventType.class)),
+    CLICK(MegaDBindingConstants.CHANNEL_CLICK, EnumSet.of(MegaDEventType.CLICK)),
+    DIMMER(MegaDBindingConstants.CHANNEL_DIMMER, EnumSet.of(MegaDEventType.VALUE, MegaDEventType.BULK)),
+    IB(MegaDBindingConstants.CHANNEL_IB, EnumSet.of(MegaDEventType.IBUTTON)),
+    WIEGAND(MegaDBindingConstants.CHANNEL_WIEGAND, EnumSet.of(MegaDEventType.WIEGAND)),
+    INCOUNT(MegaDBindingConstants.CHANNEL_INCOUNT, EnumSet.allOf(MegaDEventType.class)),
+    ONEWIRE(MegaDBindingConstants.CHANNEL_ONEWIRE, EnumSet.of(MegaDEventType.BULK)),
+    /** sensor values from the bulk status, plain values from value reports */
+    DHTTEMP(MegaDBindingConstants.CHANNEL_DHTTEMP, EnumSet.of(MegaDEventType.VALUE, MegaDEventType.BULK)),
+    DHTHUM(MegaDBindingConstants.CHANNEL_DHTHUM, EnumSet.of(MegaDEventType.VALUE, MegaDEventType.BULK)),
+    SMS_PHONE(MegaDBindingConstants.CHANNEL_SMS_PHONE, EnumSet.of(MegaDEventType.SMS)),
+    SMS_TEXT(MegaDBindingConstants.CHANNEL_SMS_TEXT, EnumSet.of(MegaDEventType.SMS)),
+    CONTACT(MegaDBindingConstants.CHANNEL_CONTACT, EnumSet.allOf(MegaDEventType.class)),
+    I2C(MegaDBindingConstants.CHANNEL_I2C, EnumSet.complementOf(EnumSet.of(MegaDEventType.BULK))),
+    /** polled with its own request, not part of the port status */
+    TGET(MegaDBindingConstants.CHANNEL_TGET, EnumSet.noneOf(MegaDEventType.class)),
+    ST(MegaDBindingConstants.CHANNEL_ST, EnumSet.of(MegaDEventType.STATUS)),
+    ADC(MegaDBindingConstants.CHANNEL_ADC, EnumSet.of(MegaDEventType.VALUE, MegaDEventType.BULK)),
+    AT(MegaDBindingConstants.CHANNEL_AT, EnumSet.of(MegaDEventType.VALUE, MegaDEventType.BULK)),
+    /** any other channel, showing the value of the port */
+    VALUE("", EnumSet.of(MegaDEventType.VALUE, MegaDEventType.BULK));
+
+    private static final Map<String, MegaDChannelKind> BY_ID = new HashMap<>();
+
+    static {
+        for (MegaDChannelKind kind : values()) {
+            if (!kind.id.isEmpty()) {
+                BY_ID.put(kind.id, kind);
+            }
+        }
+    }
+
+    private final String id;
+    private final Set<MegaDEventType> events;
+
+    MegaDChannelKind(String id, Set<MegaDEventType> events) {
+        this.id = id;
+        this.events = events;
+    }
+
+    /**
+     * @return the kind of the channel with the given id, {@link #VALUE} for channels without a kind of their own
+     */
+    static MegaDChannelKind of(String channelId) {
+        MegaDChannelKind kind = BY_ID.get(channelId);
+        return kind != null ? kind : VALUE;
+    }
+
+    /**
+     * @return false if events of the type never change the channel
+     */
+    boolean accepts(MegaDEventType type) {
+        return events.contains(type);
+    }
+
+    /**
+     * @return true if the channel is updated from the response to the "pt=N&cmd=get" poll of the port
+     */
+    boolean isPortStatus() {
+        switch (this) {
+            case IN:
+            case OUT:
+            case INCOUNT:
+            case CONTACT:
+            case DIMMER:
+            case DHTTEMP:
+            case DHTHUM:
+            case ADC:
+            case ONEWIRE:
+            case I2C:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
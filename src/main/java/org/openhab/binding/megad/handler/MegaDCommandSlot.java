@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link MegaDCommandSlot} coalesces the commands of a port, e.g. the values of a dragged dimmer slider.
+ *
+ * Only one command is sent at a time. A command arriving meanwhile waits in the slot and is replaced by any later
+ * one, so when the running request completes only the latest value is sent; the result of a replaced command is
+ * cancelled. An optional minimum interval between two requests spaces them out further.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+class MegaDCommandSlot {
+
+    private final Function<String, CompletableFuture<Integer>> sender;
+    private final ScheduledExecutorService scheduler;
+    private final long intervalNanos;
+
+    private @Nullable String pending;
+    private @Nullable CompletableFuture<Integer> pendingResult;
+    private boolean sending;
+    private long lastSent;
+    private @Nullable ScheduledFuture<?> sendJob;
+
+    /**
+     * @param sender sends a query to the controller
+     * @param intervalMillis minimum time between two requests, 0 to send as soon as the previous one completed
+     */
+    MegaDCommandSlot(Function<String, CompletableFuture<Integer>> sender, ScheduledExecutorService scheduler,
+            long intervalMillis) {
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, intervalMillis));
+        this.lastSent = System.nanoTime() - intervalNanos;
+    }
+
+    /**
+     * Puts a command into the slot, replacing a command still waiting there.
+     *
+     * @return the status code of the request that carried this command, cancelled if a later command replaced it
+     */
+    synchronized CompletableFuture<Integer> submit(String query) {
+        CompletableFuture<Integer> replaced = pendingResult;
+        if (replaced != null) {
+            replaced.cancel(false);
+        }
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        pendingResult = result;
+        pending = query;
+        if (!sending && sendJob == null) {
+            sendPending();
+        }
+        return result;
+    }
+
+    /**
+     * Drops a waiting command.
+     */
+    synchronized void cancel() {
+        ScheduledFuture<?> job = sendJob;
+        if (job != null) {
+            job.cancel(false);
+            sendJob = null;
+        }
+        CompletableFuture<Integer> result = pendingResult;
+        if (result != null) {
+            result.cancel(false);
+        }
+        pending = null;
+        pendingResult = null;
+    }
+
+    private synchronized void sendPending() {
+        sendJob = null;
+        String query = pending;
+        CompletableFuture<Integer> result = pendingResult;
+        if (sending || query == null || result == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long wait = lastSent + intervalNanos - now;
+        if (wait > 0) {
+            sendJob = scheduler.schedule(this::sendPending, wait, TimeUnit.NANOSECONDS);
+            return;
+        }
+        pending = null;
+        pendingResult = null;
+        sending = true;
+        lastSent = now;
+        sender.apply(query).whenComplete((status, error) -> {
+            synchronized (this) {
+                sending = false;
+                sendPending();
+            }
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(status);
+            }
+        });
+    }
+}
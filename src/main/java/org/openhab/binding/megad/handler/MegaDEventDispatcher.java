@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.megad.internal.MegaDEvent;
+import org.openhab.binding.megad.internal.MegaDEventQueue;
+import org.openhab.binding.megad.internal.MegaDOverflowPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link MegaDEventDispatcher} decouples the network threads of the bridge server from the handlers: events
+ * are queued by the server and passed to the handlers on dispatcher threads, so a slow event bus does not hold up
+ * accepting callbacks.
+ *
+ * Events are striped over the threads by controller. All events of one controller take the same queue and keep
+ * their order, while different controllers are dispatched in parallel. Striping by port as well would let a bulk
+ * status, which is split into its ports on the dispatcher thread, race with a push of one of these ports.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+class MegaDEventDispatcher {
+
+    private final Logger logger = LoggerFactory.getLogger(MegaDEventDispatcher.class);
+
+    private final Stripe[] stripes;
+
+    /**
+     * @param threads number of dispatcher threads, 0 for one per processor
+     * @param capacity queue capacity of every thread
+     */
+    MegaDEventDispatcher(int threads, int capacity, MegaDOverflowPolicy policy, MegaDEventQueue.Consumer consumer,
+            String threadName) {
+        int count = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(new MegaDEventQueue(capacity, policy), consumer,
+                    count == 1 ? threadName : threadName + "-" + i);
+        }
+    }
+
+    synchronized void start() {
+        for (Stripe stripe : stripes) {
+            stripe.start();
+        }
+    }
+
+    synchronized void stop() {
+        for (Stripe stripe : stripes) {
+            stripe.stop();
+        }
+    }
+
+    /**
+     * Queues an event for dispatching. Called by the network threads.
+     *
+     * @return false if the event was dropped
+     */
+    boolean dispatch(String hostAddress, int controllerId, MegaDEvent event) {
+        boolean queued = stripes[stripe(controllerId)].queue.offer(hostAddress, controllerId, event);
+        if (!queued) {
+            logger.debug("Event queue full, dropped: {}", event);
+        }
+        return queued;
+    }
+
+    private int stripe(int controllerId) {
+        if (stripes.length == 1) {
+            return 0;
+        }
+        int hash = controllerId * 0x9E3779B9;
+        return (hash >>> 16) % stripes.length;
+    }
+
+    /**
+     * @return number of events waiting for dispatching
+     */
+    int getQueueDepth() {
+        int depth = 0;
+        for (Stripe stripe : stripes) {
+            depth += stripe.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return number of events dropped because a queue was full
+     */
+    long getDropped() {
+        long dropped = 0;
+        for (Stripe stripe : stripes) {
+            dropped += stripe.queue.getDropped();
+        }
+        return dropped;
+    }
+
+    /**
+     * A queue and the thread draining it.
+     */
+    private class Stripe implements Runnable {
+        final MegaDEventQueue queue;
+        private final MegaDEventQueue.Consumer consumer;
+        private final String threadName;
+        private @Nullable Thread thread;
+
+        Stripe(MegaDEventQueue queue, MegaDEventQueue.Consumer consumer, String threadName) {
+            this.queue = queue;
+            this.consumer = consumer;
+            this.threadName = threadName;
+        }
+
+        void start() {
+            if (thread == null) {
+                Thread dispatcherThread = new Thread(this, threadName);
+                dispatcherThread.setDaemon(true);
+                dispatcherThread.start();
+                thread = dispatcherThread;
+            }
+        }
+
+        void stop() {
+            Thread dispatcherThread = thread;
+            if (dispatcherThread != null) {
+                dispatcherThread.interrupt();
+                thread = null;
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    if (!queue.poll(consumer)) {
+                        queue.awaitEvents(1, TimeUnit.SECONDS);
+                    }
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to dispatch megad event: {}", e.getMessage(), e);
+                }
+            }
+            logger.debug("Dispatcher {} stopped", threadName);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.megad.internal.MegaDEvent;
+import org.openhab.binding.megad.internal.MegaDEventType;
+
+/**
+ * The {@link MegaDEventFilter} debounces and rate limits the events of a chattering port before they reach its
+ * handler.
+ *
+ * An event passes at once if the debounce window of the last delivered event is over and the token bucket has a
+ * token left. Otherwise it is held, replacing an event of the same type held before, and delivered as soon as it is
+ * allowed, so the final state of a burst always arrives. Held events of different types are delivered in the order
+ * they arrived, so a release does not swallow the counter of a press before it.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+class MegaDEventFilter {
+
+    private final MegaDHandler target;
+    private final @Nullable MegaDBridgeMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+    private final long debounceNanos;
+    private final double tokensPerNano;
+    private final double maxTokens;
+
+    private final MegaDEvent[] held = new MegaDEvent[MegaDEventType.values().length];
+    // arrival of the held event of every type, 0 if none is held
+    private final long[] heldSequences = new long[held.length];
+    private long sequence;
+    private int holding;
+    private long windowEnd;
+    private double tokens;
+    private long lastRefill;
+    private long suppressed;
+    private @Nullable ScheduledFuture<?> flushJob;
+
+    /**
+     * @param debounceMillis minimum time between two delivered events, 0 to disable
+     * @param rateLimit maximum number of delivered events per second, 0 to disable
+     * @param metrics records the latency from receiving an event to passing it to the handler, if not null
+     */
+    MegaDEventFilter(MegaDHandler target, ScheduledExecutorService scheduler, long debounceMillis, int rateLimit,
+            @Nullable MegaDBridgeMetrics metrics) {
+        this.target = target;
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, debounceMillis));
+        this.tokensPerNano = Math.max(0, rateLimit) / 1e9;
+        this.maxTokens = Math.max(1, rateLimit);
+        this.tokens = maxTokens;
+        this.lastRefill = System.nanoTime();
+    }
+
+    boolean isActive() {
+        return debounceNanos > 0 || tokensPerNano > 0;
+    }
+
+    /**
+     * Passes the event to the handler now, later or, if a newer one follows in time, never.
+     */
+    void accept(MegaDEvent event) {
+        if (!isActive()) {
+            pass(event);
+            return;
+        }
+        synchronized (this) {
+            if (!isFiltered(event)) {
+                // keep the order of the port's events
+                flushHeld();
+                pass(event);
+                return;
+            }
+            long now = System.nanoTime();
+            refill(now);
+            if (holding == 0 && isAllowed(now)) {
+                deliver(event, now);
+                return;
+            }
+            hold(event);
+            scheduleFlush(now);
+        }
+    }
+
+    /**
+     * @return number of events that were replaced by a newer one and never delivered
+     */
+    synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    synchronized void cancel() {
+        ScheduledFuture<?> job = flushJob;
+        if (job != null) {
+            job.cancel(false);
+            flushJob = null;
+        }
+        Arrays.fill(heldSequences, 0);
+        holding = 0;
+    }
+
+    private static boolean isFiltered(MegaDEvent event) {
+        switch (event.getType()) {
+            case PRESS:
+            case RELEASE:
+            case COUNTER:
+            case VALUE:
+            case BULK:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private synchronized void flush() {
+        flushJob = null;
+        long now = System.nanoTime();
+        refill(now);
+        while (holding > 0 && isAllowed(now)) {
+            deliverOldest(now);
+        }
+        if (holding > 0) {
+            scheduleFlush(now);
+        }
+    }
+
+    private void hold(MegaDEvent event) {
+        int index = event.getType().ordinal();
+        MegaDEvent slot = held[index];
+        if (slot == null) {
+            slot = new MegaDEvent();
+            held[index] = slot;
+        }
+        if (heldSequences[index] != 0) {
+            suppressed++;
+        } else {
+            holding++;
+        }
+        slot.copyFrom(event);
+        heldSequences[index] = ++sequence;
+    }
+
+    private void flushHeld() {
+        while (holding > 0) {
+            deliverOldest(System.nanoTime());
+        }
+    }
+
+    private void deliverOldest(long now) {
+        int oldest = -1;
+        for (int i = 0; i < heldSequences.length; i++) {
+            if (heldSequences[i] != 0 && (oldest < 0 || heldSequences[i] < heldSequences[oldest])) {
+                oldest = i;
+            }
+        }
+        MegaDEvent event = held[oldest];
+        heldSequences[oldest] = 0;
+        holding--;
+        if (event != null) {
+            deliver(event, now);
+        }
+    }
+
+    private void deliver(MegaDEvent event, long now) {
+        windowEnd = now + debounceNanos;
+        if (tokensPerNano > 0) {
+            tokens = Math.max(0, tokens - 1);
+        }
+        pass(event);
+    }
+
+    private void pass(MegaDEvent event) {
+        target.updateValues(event);
+        MegaDBridgeMetrics latencies = metrics;
+        if (latencies != null && !event.isPolled()) {
+            latencies.recordLatency(System.nanoTime() - event.getReceivedNanos());
+        }
+    }
+
+    private boolean isAllowed(long now) {
+        return now - windowEnd >= 0 && (tokensPerNano <= 0 || tokens >= 1);
+    }
+
+    private void refill(long now) {
+        if (tokensPerNano > 0) {
+            tokens = Math.min(maxTokens, tokens + (now - lastRefill) * tokensPerNano);
+        }
+        lastRefill = now;
+    }
+
+    private void scheduleFlush(long now) {
+        if (flushJob != null) {
+            return;
+        }
+        long delay = Math.max(0, windowEnd - now);
+        if (tokensPerNano > 0 && tokens < 1) {
+            delay = Math.max(delay, (long) Math.ceil((1 - tokens) / tokensPerNano));
+        }
+        flushJob = scheduler.schedule(this::flush, Math.max(delay, 1), TimeUnit.NANOSECONDS);
+    }
+}
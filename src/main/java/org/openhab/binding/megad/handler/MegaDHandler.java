@@ -12,15 +12,19 @@
  */
 package org.openhab.binding.megad.handler;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.ProtocolException;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
@@ -35,11 +39,20 @@ import org.eclipse.smarthome.core.thing.Channel;
 import org.eclipse.smarthome.core.thing.ChannelUID;
 import org.eclipse.smarthome.core.thing.Thing;
 import org.eclipse.smarthome.core.thing.ThingStatus;
+import org.eclipse.smarthome.core.thing.ThingStatusDetail;
 import org.eclipse.smarthome.core.thing.binding.BaseThingHandler;
 import org.eclipse.smarthome.core.thing.binding.ThingHandler;
 import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.RefreshType;
+import org.eclipse.smarthome.core.types.State;
 import org.openhab.binding.megad.MegaDBindingConstants;
+import org.openhab.binding.megad.MegaDConfiguration;
 import org.openhab.binding.megad.i2c.I2C;
+import org.openhab.binding.megad.internal.MegaDCircuitBreaker;
+import org.openhab.binding.megad.internal.MegaDEvent;
+import org.openhab.binding.megad.internal.MegaDEventType;
+import org.openhab.binding.megad.internal.MegaDHttpClient;
+import org.openhab.binding.megad.internal.MegaDTimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,16 +65,40 @@ import org.slf4j.LoggerFactory;
 @NonNullByDefault
 public class MegaDHandler extends BaseThingHandler {
 
+    /**
+     * Milliseconds a poll waits for each of its requests: the time to connect and the time to read the response.
+     * The poll is given twice that, for the requests it may find queued, see {@link #updateData()}.
+     */
+    private static final int REQUEST_DEADLINE = 2 * MegaDHttpClient.TIMEOUT;
+
     private Logger logger = LoggerFactory.getLogger(MegaDHandler.class);
-    protected long lastRefresh = 0;
-    private @Nullable ScheduledFuture<?> refreshPollingJob;
-    protected int dimmervalue;
+    private final MegaDTimingWheel pollWheel;
+    private MegaDTimingWheel.@Nullable Timeout refreshPollingJob;
+    protected volatile int dimmervalue;
     @Nullable
     MegaDBridgeHandler bridgeHandler;
     boolean isI2cInit = false;
-
-    public MegaDHandler(Thing thing) {
+    private final Map<String, CachedState> stateCache = new ConcurrentHashMap<>();
+    private final AtomicLong suppressedUpdates = new AtomicLong();
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private final MegaDPollGate pollGate = new MegaDPollGate();
+    private long pollIntervalNanos;
+    private long forceRefreshNanos;
+    private volatile MegaDEventFilter eventFilter = new MegaDEventFilter(this, scheduler, 0, 0, null);
+    private volatile MegaDCommandSlot dimmerSlot = new MegaDCommandSlot(this::sendPortCommand, scheduler, 0);
+    private @Nullable MegaDHttpClient httpClient;
+    private final MegaDCircuitBreaker.Listener reachabilityListener = this::reachabilityChanged;
+    private String portCommand = "";
+    private String getQuery = "";
+    private String i2cQuery = "";
+    private String listQuery = "";
+    private volatile LinkedChannel[] linkedChannels = new LinkedChannel[0];
+    private volatile LinkedChannel[][] eventChannels = new LinkedChannel[MegaDEventType.values().length][0];
+    private volatile boolean portPollRequired;
+
+    public MegaDHandler(Thing thing, MegaDTimingWheel pollWheel) {
         super(thing);
+        this.pollWheel = pollWheel;
     }
 
     @Override
@@ -70,46 +107,46 @@ public class MegaDHandler extends BaseThingHandler {
 
         String result = "";
 
+        MegaDBridgeHandler bridge = bridgeHandler;
+        if (bridge != null && !(command instanceof RefreshType)) {
+            bridge.invalidatePortState(this);
+        }
+        // the item may have been auto-updated, the next state from the device must pass
+        stateCache.remove(channelUID.getId());
         if (channelUID.getId().equals(MegaDBindingConstants.CHANNEL_OUT)) {
             if (command.toString().equals("ON")) {
                 state = 1;
             } else if (command.toString().equals("OFF")) {
                 state = 0;
             }
-            result = "http://" + getThing().getConfiguration().get("hostname").toString() + "/"
-                    + getThing().getConfiguration().get("password").toString() + "/?cmd="
-                    + getThing().getConfiguration().get("port").toString() + ":" + state;
+            result = portCommand + state;
             logger.info("Switch: {}", result);
-            sendCommand(result);
+            sendPortCommand(result);
         } else if (channelUID.getId().equals(MegaDBindingConstants.CHANNEL_DIMMER)) {
             if (!command.toString().equals("REFRESH")) {
                 try {
                     int resultInt = (int) Math.round(Integer.parseInt(command.toString()) * 2.55);
                     dimmervalue = resultInt;
-                    result = "http://" + getThing().getConfiguration().get("hostname").toString() + "/"
-                            + getThing().getConfiguration().get("password").toString() + "/?cmd="
-                            + getThing().getConfiguration().get("port").toString() + ":" + dimmervalue;
+                    result = portCommand + dimmervalue;
                     logger.info("Dimmer: {}", result);
-                    sendCommand(result);
+                    dimmerSlot.submit(result);
                 } catch (Exception e) {
                     if (command.toString().equals("OFF")) {
-                        result = "http://" + getThing().getConfiguration().get("hostname").toString() + "/"
-                                + getThing().getConfiguration().get("password").toString() + "/?cmd="
-                                + getThing().getConfiguration().get("port").toString() + ":0";
+                        result = portCommand + "0";
                         logger.info("Dimmer set to OFF");
-                        sendCommand(result);
+                        dimmerSlot.submit(result);
                     } else if (command.toString().equals("ON")) {
-                        result = "http://" + getThing().getConfiguration().get("hostname").toString() + "/"
-                                + getThing().getConfiguration().get("password").toString() + "/?cmd="
-                                + getThing().getConfiguration().get("port").toString() + ":" + dimmervalue;
+                        result = portCommand + dimmervalue;
                         logger.info("Dimmer restored to previous value: {}", result);
-                        sendCommand(result);
-                        int percent = 0;
-                        try {
-                            percent = (int) Math.round(dimmervalue / 2.55);
-                        } catch (Exception ex) {
-                        }
-                        updateState(channelUID.getId(), PercentType.valueOf(Integer.toString(percent)));
+                        int restored = dimmervalue;
+                        int percent = (int) Math.round(restored / 2.55);
+                        // cancelled if a later value replaced this one before it was sent; one arriving after it
+                        // was sent must not be overwritten either
+                        dimmerSlot.submit(result).thenRun(() -> {
+                            if (dimmervalue == restored) {
+                                updateState(channelUID.getId(), PercentType.valueOf(Integer.toString(percent)));
+                            }
+                        });
                     } else {
                         logger.debug("Illegal dimmer value: {}", result);
                     }
@@ -118,10 +155,13 @@ public class MegaDHandler extends BaseThingHandler {
             }
         } else if (channelUID.getId().equals(MegaDBindingConstants.CHANNEL_I2C_DISPLAY)) {
             logger.debug("display changed");
+            MegaDHttpClient client = httpClient;
+            if (client == null) {
+                logger.debug("Display command for {} dropped, the thing is not initialized", getThing().getUID());
+                return;
+            }
             try {
-                I2C disp = new I2C(getThing().getConfiguration().get("hostname").toString(),
-                        getThing().getConfiguration().get("password").toString(),
-                        getThing().getConfiguration().get("port").toString(),
+                I2C disp = new I2C(client, getThing().getConfiguration().get("port").toString(),
                         getThing().getConfiguration().get("scl").toString());
 
                 if (!isI2cInit) {
@@ -139,165 +179,318 @@ public class MegaDHandler extends BaseThingHandler {
         }
     }
 
-    public void sendCommand(String Result) {
-        HttpURLConnection con;
+    /**
+     * Sends a command to the controller of this thing without waiting for it. Failures are logged.
+     *
+     * @param query query part of the request, e.g. "cmd=7:1"
+     * @return the status code of the response, completed on the thread of the controller's client
+     */
+    public CompletableFuture<Integer> sendCommand(String query) {
+        MegaDHttpClient client = httpClient;
+        return logResult(query, client != null ? client.sendAsync(query) : notSent());
+    }
 
-        URL megaURL;
+    /**
+     * Sends a command to the port of this thing, joined with the commands of other ports of the controller sent
+     * within the batch window of the bridge.
+     *
+     * @param command port command like "7:1"
+     */
+    private CompletableFuture<Integer> sendPortCommand(String command) {
+        MegaDHttpClient client = httpClient;
+        return logResult(command, client != null ? client.commandAsync(command) : notSent());
+    }
 
-        try {
-            megaURL = new URL(Result);
-            con = (HttpURLConnection) megaURL.openConnection();
-            // optional default is GET
-            con.setReadTimeout(1500);
-            con.setConnectTimeout(1500);
-            con.setRequestMethod("GET");
+    /**
+     * @return a cancelled future, for requests of a thing that is disposed or not yet initialized
+     */
+    private static <T> CompletableFuture<T> notSent() {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.cancel(false);
+        return future;
+    }
 
-            // add request header
-            con.setRequestProperty("User-Agent", "Mozilla/5.0");
-            if (con.getResponseCode() == 200) {
+    private CompletableFuture<Integer> logResult(String query, CompletableFuture<Integer> future) {
+        future.whenComplete((status, error) -> {
+            if (isUnreachable(error)) {
+                logger.debug("Command {} not sent: {}", query, error.getLocalizedMessage());
+            } else if (error instanceof CancellationException) {
+                logger.debug("Command {} not sent, the thing is not initialized", query);
+            } else if (error != null) {
+                logger.warn("Connect to megadevice {} {} error: ",
+                        getThing().getConfiguration().get("hostname").toString(), error.getLocalizedMessage());
+            } else if (status == 200) {
                 logger.debug("OK");
+            } else {
+                logger.debug("Command {} answered with {}", query, status);
             }
-            con.disconnect();
-        } catch (MalformedURLException e) {
-            logger.error("{}", e.getLocalizedMessage());
-        } catch (ProtocolException e) {
-            logger.error("{}", e.getLocalizedMessage());
-        } catch (IOException e) {
-            logger.warn("Connect to megadevice {} {} error: ", getThing().getConfiguration().get("hostname").toString(),
-                    e.getLocalizedMessage());
+        });
+        return future;
+    }
+
+    /**
+     * @return true if the request failed because the controller is known not to answer
+     */
+    private static boolean isUnreachable(@Nullable Throwable error) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        return cause instanceof MegaDCircuitBreaker.MegaDUnreachableException;
+    }
+
+    /**
+     * Sets the thing offline when the controller stops answering, and back online with the first answer.
+     */
+    private void reachabilityChanged(boolean reachable) {
+        if (!reachable) {
+            updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, "Controller does not answer");
+            return;
+        }
+        Bridge bridge = getBridge();
+        if (bridge == null || bridge.getStatus() == ThingStatus.ONLINE) {
+            updateStatus(ThingStatus.ONLINE);
         }
     }
 
-    public void updateValues(String hostAddress, String[] getCommands, @Nullable OnOffType OnOff) {
-        for (Channel channel : getThing().getChannels()) {
-            if (isLinked(channel.getUID().getId())) {
-                if ((channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_IN))
-                        || (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_OUT))) {
-                    if (OnOff != null) {
-                        updateState(channel.getUID().getId(), OnOff);
-                    }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_M2)) {
-                    try {
-                        if (getCommands[4].equals("2") && getCommands[3].equals("m")) {
-                            updateState(channel.getUID().getId(), OnOffType.ON);
-                        } else if (OnOff == OnOffType.OFF) {
-                            updateState(channel.getUID().getId(), OnOffType.OFF);
-                        }
-                    } catch (Exception e) {
-                        logger.debug(" Not m2 signal: {}", e.getLocalizedMessage());
-                    }
+    /**
+     * @return the client of the controller, null while the thing is not initialized
+     */
+    @Nullable
+    MegaDHttpClient getHttpClient() {
+        return httpClient;
+    }
 
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_CLICK)) {
+    public void updateValues(MegaDEvent event) {
+        OnOffType onOff = null;
+        if (event.getSwitchState() == MegaDEvent.SWITCH_ON) {
+            onOff = OnOffType.ON;
+        } else if (event.getSwitchState() == MegaDEvent.SWITCH_OFF) {
+            onOff = OnOffType.OFF;
+        }
+        MegaDEventType type = event.getType();
+        if (!event.isPolled() && type != MegaDEventType.STATUS && type != MegaDEventType.SMS) {
+            pollGate.pushed();
+        }
 
-                    if (getCommands[3].equals("click")) {
-                        try {
-                            updateState(channel.getUID().getId(), DecimalType.valueOf(getCommands[4]));
-                        } catch (Exception ex) {
-                            logger.debug(" Cannot update click: {} ", ex.getLocalizedMessage());
-                        }
+        for (LinkedChannel channel : eventChannels[type.ordinal()]) {
+            switch (channel.kind) {
+                case IN:
+                case OUT:
+                    if (onOff != null) {
+                        updateState(channel.id, onOff);
                     }
-
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_DIMMER)) {
-                    int percent = 0;
-                    try {
-                        percent = (int) Math.round(Integer.parseInt(getCommands[4]) / 2.55);
-                    } catch (Exception ex) {
+                    break;
+                case M2:
+                    if (type == MegaDEventType.LONG_PRESS) {
+                        updateState(channel.id, OnOffType.ON);
+                    } else if (onOff == OnOffType.OFF) {
+                        updateState(channel.id, OnOffType.OFF);
                     }
-                    updateState(channel.getUID().getId(), PercentType.valueOf(Integer.toString(percent)));
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_IB)) {
-                    try {
-                        updateState(channel.getUID().getId(), StringType.valueOf(getCommands[4]));
-                    } catch (Exception ex) {
+                    break;
+                case CLICK:
+                    updateState(channel.id, new DecimalType(event.getClicks()));
+                    break;
+                case DIMMER:
+                    if (event.hasValue()) {
+                        int percent = (int) Math.round(event.getValue() / 2.55);
+                        updateState(channel.id, new PercentType(Math.max(0, Math.min(100, percent))));
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_WIEGAND)) {
-                    try {
-                        updateState(channel.getUID().getId(), StringType.valueOf(getCommands[4]));
-                    } catch (Exception ex) {
+                    break;
+                case IB:
+                case WIEGAND:
+                    String code = event.getText();
+                    if (code != null) {
+                        updateState(channel.id, StringType.valueOf(code));
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_AT)) {
-                    try {
-                        updateState(channel.getUID().getId(), DecimalType.valueOf(getCommands[2]));
-                    } catch (Exception ex) {
-                    }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_ADC)) {
-                    try {
-                        updateState(channel.getUID().getId(), DecimalType.valueOf(getCommands[2]));
-                    } catch (Exception ex) {
-                    }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_INCOUNT)) {
-                    try {
-                        if (getCommands[5].equals("cnt")) {
-                            updateState(channel.getUID().getId(), DecimalType.valueOf(getCommands[6]));
-
-                        } else if (getCommands[3].equals("cnt")) {
-                            updateState(channel.getUID().getId(), DecimalType.valueOf(getCommands[4]));
-                        }
-                    } catch (Exception ex) {
+                    break;
+                case INCOUNT:
+                    if (event.hasCounter()) {
+                        updateState(channel.id, new DecimalType(event.getCounter()));
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_ONEWIRE)) {
-                    logger.debug("Does not accept incoming values");
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_SMS_PHONE)) {
-                    try {
-                        updateState(channel.getUID().getId(), StringType.valueOf(getCommands[2]));
-                    } catch (Exception ex) {
+                    break;
+                case ONEWIRE:
+                    updateSensorState(channel.id, event.getText(), "temp", 0);
+                    break;
+                case DHTTEMP:
+                    if (type == MegaDEventType.BULK) {
+                        updateSensorState(channel.id, event.getText(), "temp", 0);
+                    } else {
+                        updateValueState(channel.id, event);
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_SMS_TEXT)) {
-                    try {
-                        updateState(channel.getUID().getId(), StringType.valueOf(getCommands[4]));
-                    } catch (Exception ex) {
+                    break;
+                case DHTHUM:
+                    if (type == MegaDEventType.BULK) {
+                        updateSensorState(channel.id, event.getText(), "hum", 1);
+                    } else {
+                        updateValueState(channel.id, event);
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_CONTACT)) {
-                    if (OnOff != null) {
-                        if (OnOff.name() == "ON") {
-                            updateState(channel.getUID().getId(), OpenClosedType.CLOSED);
-                        } else if (OnOff.name() == "OFF") {
-                            updateState(channel.getUID().getId(), OpenClosedType.OPEN);
-                        }
+                    break;
+                case SMS_PHONE:
+                    String phone = event.getText();
+                    if (phone != null) {
+                        updateState(channel.id, StringType.valueOf(phone));
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_I2C)) {
-                    String commands = "";
-                    logger.debug(commands);
-
-                    if (getCommands.length % 2 != 0) {
-                        for (int i = 3; getCommands.length > i;) {
-                            commands += getCommands[i] + "=" + getCommands[i + 1] + "&";
-                            i = i + 2;
-                        }
+                    break;
+                case SMS_TEXT:
+                    String text = event.getSecondText();
+                    if (text != null) {
+                        updateState(channel.id, StringType.valueOf(text));
                     }
-                    try {
-                        commands = commands.substring(0, commands.length() - 1);
-                    } catch (Exception ex) {
-                        // logger.error("cannot parse. wrong incoming: " + commands + " Error: " + ex);
+                    break;
+                case CONTACT:
+                    if (onOff == OnOffType.ON) {
+                        updateState(channel.id, OpenClosedType.CLOSED);
+                    } else if (onOff == OnOffType.OFF) {
+                        updateState(channel.id, OpenClosedType.OPEN);
                     }
-                    updateState(channel.getUID().getId(), StringType.valueOf(commands));
-
+                    break;
+                case I2C:
+                    String commands = event.getParameters();
+                    updateState(channel.id, StringType.valueOf(commands));
                     logger.debug("i2c command receive is: {}", commands);
-                } else {
-                    try {
-                        updateState(channel.getUID().getId(), DecimalType.valueOf(getCommands[4]));
-                    } catch (Exception ex) {
+                    break;
+                case ST:
+                    if (event.hasValue()) {
+                        updateState(channel.id, new DecimalType(event.getValue()));
                     }
+                    break;
+                default:
+                    updateValueState(channel.id, event);
+            }
+        }
+    }
+
+    private void updateValueState(String channelId, MegaDEvent event) {
+        if (event.hasValue()) {
+            updateState(channelId, new DecimalType(event.getValue()));
+        } else {
+            String value = event.getValueText();
+            if (value != null) {
+                try {
+                    updateState(channelId, DecimalType.valueOf(value));
+                } catch (NumberFormatException ex) {
+                    logger.debug("Cannot update value at channel: '{}'", channelId);
                 }
-            } else {
-                if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_ST)) {
-                    try {
-                        updateState(channel.getUID().getId(), DecimalType.valueOf(getCommands[2]));
-                    } catch (Exception ex) {
-                    }
+            }
+        }
+    }
+
+    /**
+     * Updates a sensor channel from a bulk status like "temp:24.5/hum:40", "24.5/40" or "24.5".
+     *
+     * @param key name of the value in the keyed format
+     * @param index position of the value in the plain format
+     */
+    private void updateSensorState(String channelId, @Nullable String status, String key, int index) {
+        if (status == null || status.equals("NA")) {
+            return;
+        }
+        String[] parts = status.split("[:/]");
+        String value = null;
+        if (parts.length > 2 || status.contains(":")) {
+            for (int i = 0; i + 1 < parts.length; i += 2) {
+                if (parts[i].contains(key)) {
+                    value = parts[i + 1];
                 }
             }
+        } else if (index < parts.length) {
+            value = parts[index];
+        }
+        if (value != null) {
+            try {
+                updateState(channelId, DecimalType.valueOf(value));
+            } catch (NumberFormatException ex) {
+                logger.debug("Cannot update sensor value at channel: '{}'", channelId);
+            }
         }
     }
 
     @Override
     public void updateStatus(ThingStatus status) {
+        MegaDHttpClient client = httpClient;
+        if (status == ThingStatus.ONLINE && client != null && !client.getCircuitBreaker().isReachable()) {
+            // the bridge is online, but this controller is not
+            updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, "Controller does not answer");
+            return;
+        }
         super.updateStatus(status);
     }
 
+    /**
+     * Skips updates that repeat the last state of the channel, unless the last update is older than the
+     * "forceRefresh" interval of the thing.
+     */
+    @Override
+    protected void updateState(ChannelUID channelUID, State state) {
+        long now = System.nanoTime();
+        CachedState cached = stateCache.get(channelUID.getId());
+        if (cached != null && cached.state.equals(state)
+                && (forceRefreshNanos <= 0 || now - cached.updated < forceRefreshNanos)) {
+            suppressedUpdates.incrementAndGet();
+            return;
+        }
+        stateCache.put(channelUID.getId(), new CachedState(state, now));
+        super.updateState(channelUID, state);
+    }
+
+    @Override
+    public void channelLinked(ChannelUID channelUID) {
+        stateCache.remove(channelUID.getId());
+        buildChannelTable();
+        super.channelLinked(channelUID);
+    }
+
+    @Override
+    public void channelUnlinked(ChannelUID channelUID) {
+        buildChannelTable();
+        super.channelUnlinked(channelUID);
+    }
+
+    private long configValue(String name) {
+        Object value = getThing().getConfiguration().get(name);
+        return value != null ? Long.parseLong(value.toString().split("[.]")[0]) : 0;
+    }
+
+    /**
+     * @return refresh interval of the thing in seconds, 0 if it is not polled
+     */
+    long getRefreshInterval() {
+        return configValue("refresh");
+    }
+
+    /**
+     * @return counts of due and skipped polls of the port status
+     */
+    MegaDPollGate getPollGate() {
+        return pollGate;
+    }
+
+    /**
+     * @return debounce and rate limit the bridge applies to the events of this thing
+     */
+    MegaDEventFilter getEventFilter() {
+        return eventFilter;
+    }
+
+    /**
+     * @return number of channel updates skipped because the state did not change
+     */
+    public long getSuppressedUpdates() {
+        return suppressedUpdates.get();
+    }
+
     @SuppressWarnings("null")
     @Override
     public void initialize() {
+        forceRefreshNanos = TimeUnit.SECONDS.toNanos(configValue("forceRefresh"));
+        stateCache.clear();
         bridgeHandler = getBridgeHandler();
+        MegaDBridgeHandler bridge = bridgeHandler;
+        eventFilter.cancel();
+        eventFilter = new MegaDEventFilter(this, scheduler, configValue("debounce"), (int) configValue("rateLimit"),
+                bridge != null ? bridge.getMetrics() : null);
+        dimmerSlot.cancel();
+        dimmerSlot = new MegaDCommandSlot(this::sendPortCommand, scheduler, configValue("dimmerInterval"));
+        buildRequests();
+        buildChannelTable();
         logger.debug("Thing Handler for {} started", getThing().getUID().getId());
         if (bridgeHandler != null) {
             registerMegadThingListener(bridgeHandler);
@@ -308,65 +501,117 @@ public class MegaDHandler extends BaseThingHandler {
         String[] rr = getThing().getConfiguration().get("refresh").toString().split("[.]");
         logger.debug("refresh: {}", rr[0]);
         int pollingPeriod = Integer.parseInt(rr[0]) * 1000;
-        if (pollingPeriod != 0) {
-            if (refreshPollingJob == null || refreshPollingJob.isCancelled()) {
-                refreshPollingJob = scheduler.scheduleWithFixedDelay(new Runnable() {
-                    @Override
-                    public void run() {
-                        refresh(pollingPeriod);
-                    }
-                }, 0, 1000, TimeUnit.MILLISECONDS);
-            }
+        pollIntervalNanos = TimeUnit.MILLISECONDS.toNanos(pollingPeriod);
+        MegaDHttpClient client = httpClient;
+        if (pollingPeriod != 0 && refreshPollingJob == null && client != null) {
+            // spread the things of a controller over the period instead of polling them all at once
+            long initialDelay = pollWheel.spread(client.getHostname(), pollingPeriod);
+            refreshPollingJob = pollWheel.scheduleAtFixedRate(this::updateData, initialDelay, pollingPeriod,
+                    scheduler);
         }
     }
 
-    public void refresh(int interval) {
-        long now = System.currentTimeMillis();
-        if (now >= (lastRefresh + interval)) {
-            updateData();
-            lastRefresh = now;
+    /**
+     * Prepares the client and the queries of this thing, so sending a request only appends the value.
+     */
+    private void buildRequests() {
+        Configuration config = getThing().getConfiguration();
+        MegaDHttpClient previous = httpClient;
+        // acquired before the previous one is released, so an unchanged client keeps its connection and state
+        MegaDHttpClient client = MegaDHttpClient.acquire(config.get("hostname").toString(),
+                config.get("password").toString());
+        httpClient = client;
+        if (previous != null) {
+            previous.getCircuitBreaker().removeListener(reachabilityListener);
+            previous.release();
+        }
+        client.setReuseConnection(Boolean.parseBoolean(String.valueOf(config.get("reuseConnection"))));
+        MegaDBridgeHandler bridge = bridgeHandler;
+        if (bridge != null) {
+            MegaDConfiguration bridgeConfig = bridge.getBridgeConfiguration();
+            client.setBatching(bridgeConfig.batchWindow, bridgeConfig.maxCommandLength, scheduler);
+            client.getCircuitBreaker().configure(bridgeConfig.failureThreshold,
+                    TimeUnit.SECONDS.toMillis(bridgeConfig.probeInterval));
+        }
+        client.getCircuitBreaker().addListener(reachabilityListener);
+        String port = config.get("port").toString();
+        portCommand = port + ":";
+        getQuery = "pt=" + port + "&cmd=get";
+        listQuery = "pt=" + port + "&cmd=list";
+        if (config.get("scl") != null && config.get("i2c_dev") != null) {
+            i2cQuery = "pt=" + port + "&scl=" + config.get("scl").toString() + "&i2c_dev="
+                    + config.get("i2c_dev").toString();
+            if (config.get("i2c_par") != null) {
+                i2cQuery += "&i2c_par=" + config.get("i2c_par").toString();
+            }
+        } else {
+            i2cQuery = "";
         }
     }
 
-    @SuppressWarnings("unlikely-arg-type")
     protected void updateData() {
         logger.debug("Updating Megadevice things...");
-        String[] result = { "http://" + getThing().getConfiguration().get("hostname").toString() + "/"
-                + getThing().getConfiguration().get("password").toString() + "/?pt="
-                + getThing().getConfiguration().get("port").toString() + "&cmd=get", "", "", "" };
+        MegaDBridgeHandler bridge = bridgeHandler;
+        // the port status comes with the bulk poll of the controller or is still fresh from a push, only tget and
+        // i2c need requests of their own then
+        boolean bulk = bridge != null && bridge.isBulkPolled(this);
+        boolean portStatus = !bulk && pollGate.shouldPoll(pollIntervalNanos,
+                bridge == null || bridge.getBridgeConfiguration().adaptivePolling);
+        String[] result = { portStatus ? getQuery : "", "", "", "" };
         Channel tget = getThing().getChannel(MegaDBindingConstants.CHANNEL_TGET);
         if (tget != null) {
             if ((isLinked(tget.getUID()))) {
-                result[1] = "   http://" + getThing().getConfiguration().get("hostname").toString() + "/"
-                        + getThing().getConfiguration().get("password").toString() + "/?tget=1 ";
+                result[1] = "tget=1";
             }
         }
 
-        if ((getThing().getConfiguration().get("scl") != null)
-                && (getThing().getConfiguration().get("i2c_dev") != null)) {
-            result[2] = "http://" + getThing().getConfiguration().get("hostname").toString() + "/"
-                    + getThing().getConfiguration().get("password").toString() + "/?pt="
-                    + getThing().getConfiguration().get("port").toString() + "&scl="
-                    + getThing().getConfiguration().get("scl").toString() + "&i2c_dev="
-                    + getThing().getConfiguration().get("i2c_dev").toString();
-            result[3] = "http://" + getThing().getConfiguration().get("hostname").toString() + "/"
-                    + getThing().getConfiguration().get("password").toString() + "/?pt="
-                    + getThing().getConfiguration().get("port").toString() + "&cmd=list";
+        if (!i2cQuery.isEmpty()) {
+            result[2] = i2cQuery;
+            result[3] = listQuery;
         }
-        String[] updateRequest = sendRequest(result);
-
-        for (Channel channel : getThing().getChannels()) {
+        MegaDHttpClient client = httpClient;
+        if (!portStatus && result[1].isEmpty() && result[2].isEmpty() || client == null) {
+            return;
+        }
+        int requests = (int) Arrays.stream(result).filter(query -> !query.isEmpty()).count();
+        if (client.getPending() >= requests) {
+            // the poll would wait longer for the queued requests than for its own ones, the next one is due soon
+            logger.debug("Poll of {} skipped, {} requests queued for the controller", getThing().getUID().getId(),
+                    client.getPending());
+            return;
+        }
+        if (!polling.compareAndSet(false, true)) {
+            logger.debug("Previous poll of {} not completed yet", getThing().getUID().getId());
+            return;
+        }
+        sendRequest(client, result).thenAccept(updateRequest -> {
+            try {
+                if (httpClient != null) {
+                    updateChannels(updateRequest, portStatus);
+                }
+            } finally {
+                polling.set(false);
+            }
+        });
+    }
 
-            if (isLinked(channel.getUID().getId())) {
-                if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_ST)) {
+    private void updateChannels(String[] updateRequest, boolean portStatus) {
+        for (LinkedChannel channel : linkedChannels) {
+            if (!portStatus && channel.kind != MegaDChannelKind.TGET && channel.kind != MegaDChannelKind.I2C) {
+                continue;
+            }
+            switch (channel.kind) {
+                case ST:
                     return;
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_IN)) {
+                case IN:
+                case OUT:
                     if (updateRequest[0].contains("ON")) {
-                        updateState(channel.getUID().getId(), OnOffType.ON);
+                        updateState(channel.id, OnOffType.ON);
                     } else if (updateRequest[0].contains("OFF")) {
-                        updateState(channel.getUID().getId(), OnOffType.OFF);
+                        updateState(channel.id, OnOffType.OFF);
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_INCOUNT)) {
+                    break;
+                case INCOUNT:
                     String[] value = updateRequest[0].split("[/]");
                     for (int i = 0; i < value.length; i++) {
 
@@ -374,104 +619,107 @@ public class MegaDHandler extends BaseThingHandler {
                     }
                     try {
                         if (value.length == 2) {
-                            updateState(channel.getUID().getId(), DecimalType.valueOf(value[1]));
+                            updateState(channel.id, DecimalType.valueOf(value[1]));
                         } else if (value.length == 3) {
-                            updateState(channel.getUID().getId(), DecimalType.valueOf(value[2]));
+                            updateState(channel.id, DecimalType.valueOf(value[2]));
                         }
                     } catch (Exception ex) {
                         logger.debug("this is not inputs count!");
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_OUT)) {
+                    break;
+                case CONTACT:
                     if (updateRequest[0].contains("ON")) {
-                        updateState(channel.getUID().getId(), OnOffType.ON);
+                        updateState(channel.id, OpenClosedType.CLOSED);
                     } else if (updateRequest[0].contains("OFF")) {
-                        updateState(channel.getUID().getId(), OnOffType.OFF);
+                        updateState(channel.id, OpenClosedType.OPEN);
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_CONTACT)) {
-                    if (updateRequest[0].contains("ON")) {
-                        updateState(channel.getUID().getId(), OpenClosedType.CLOSED);
-                    } else if (updateRequest[0].contains("OFF")) {
-                        updateState(channel.getUID().getId(), OpenClosedType.OPEN);
-                    }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_DIMMER)) {
+                    break;
+                case DIMMER:
                     int percent = 0;
                     try {
                         percent = (int) Math.round(Integer.parseInt(updateRequest[0]) / 2.55);
                     } catch (Exception ex) {
                         logger.debug("Cannot convert to dimmer values string: '{}'", updateRequest[0]);
                     }
-                    updateState(channel.getUID().getId(), PercentType.valueOf(Integer.toString(percent)));
+                    updateState(channel.id, PercentType.valueOf(Integer.toString(percent)));
                     logger.debug("{} {}", getThing().getUID().getId(), percent);
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_DHTTEMP)) {
+                    break;
+                case DHTTEMP: {
                     String[] responseParse = updateRequest[0].split("[:/]");
                     if (responseParse.length > 2) {
                         if (responseParse[0].contains("temp")) {
-                            updateState(channel.getUID().getId(), DecimalType.valueOf(responseParse[1]));
+                            updateState(channel.id, DecimalType.valueOf(responseParse[1]));
                         }
                     } else {
                         try {
-                            updateState(channel.getUID().getId(), DecimalType.valueOf(responseParse[0]));
+                            updateState(channel.id, DecimalType.valueOf(responseParse[0]));
                         } catch (Exception ex) {
-                            logger.debug("Cannot update DHT temperature at channel: '{}'", channel.getUID().getId());
+                            logger.debug("Cannot update DHT temperature at channel: '{}'", channel.id);
                         }
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_DHTHUM)) {
+                    break;
+                }
+                case DHTHUM: {
                     String[] responseParse = updateRequest[0].split("[:/]");
                     if (responseParse.length > 2) {
                         if (responseParse[2].contains("hum")) {
-                            updateState(channel.getUID().getId(), DecimalType.valueOf(responseParse[3]));
+                            updateState(channel.id, DecimalType.valueOf(responseParse[3]));
                         }
                     } else {
                         if (responseParse.length >= 2) {
                             try {
-                                updateState(channel.getUID().getId(), DecimalType.valueOf(responseParse[1]));
+                                updateState(channel.id, DecimalType.valueOf(responseParse[1]));
                             } catch (Exception ex) {
-                                logger.debug("Cannot update DHT humidity at channel: '{}'", channel.getUID().getId());
+                                logger.debug("Cannot update DHT humidity at channel: '{}'", channel.id);
                             }
                         }
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_TGET)) {
+                    break;
+                }
+                case TGET:
                     // Result[1];
                     try {
-                        updateState(channel.getUID().getId(), DecimalType.valueOf(updateRequest[1]));
+                        updateState(channel.id, DecimalType.valueOf(updateRequest[1]));
                     } catch (Exception ex) {
-                        logger.debug("Cannot update TGET value at channel: '{}'", channel.getUID().getId());
+                        logger.debug("Cannot update TGET value at channel: '{}'", channel.id);
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_ADC)) {
+                    break;
+                case ADC:
                     try {
-                        updateState(channel.getUID().getId(), DecimalType.valueOf(updateRequest[0]));
+                        updateState(channel.id, DecimalType.valueOf(updateRequest[0]));
                     } catch (Exception ex) {
-                        logger.debug("Cannot update ADC value at channel: '{}'", channel.getUID().getId());
+                        logger.debug("Cannot update ADC value at channel: '{}'", channel.id);
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_ONEWIRE)) {
+                    break;
+                case ONEWIRE: {
                     String[] responseParse = updateRequest[0].split("[:]");
                     if (responseParse.length > 1) {
                         logger.debug("{}", responseParse[1]);
                         if (!(updateRequest[0].equals("NA"))) {
                             try {
-                                updateState(channel.getUID().getId(), DecimalType.valueOf(responseParse[1]));
+                                updateState(channel.id, DecimalType.valueOf(responseParse[1]));
                             } catch (Exception ex) {
-                                logger.debug("Cannot update One wire temperature at channel: '{}'",
-                                        channel.getUID().getId());
+                                logger.debug("Cannot update One wire temperature at channel: '{}'", channel.id);
                             }
                         }
                     } else {
                         if (!(updateRequest[0].equals("NA"))) {
                             try {
-                                updateState(channel.getUID().getId(), DecimalType.valueOf(updateRequest[0]));
+                                updateState(channel.id, DecimalType.valueOf(updateRequest[0]));
                             } catch (Exception ex) {
-                                logger.debug("Cannot update One wire temperature at channel: '{}'",
-                                        channel.getUID().getId());
+                                logger.debug("Cannot update One wire temperature at channel: '{}'", channel.id);
                             }
                         }
                     }
-                } else if (channel.getUID().getId().equals(MegaDBindingConstants.CHANNEL_I2C)) {
+                    break;
+                }
+                case I2C:
                     // Result =;
                     if (!updateRequest[2].equals("")) {
-                        updateState(channel.getUID().getId(), StringType.valueOf(updateRequest[2]));
-                    } else {
+                        updateState(channel.id, StringType.valueOf(updateRequest[2]));
+                    } else if (portStatus) {
                         try {
-                            updateState(channel.getUID().getId(), StringType.valueOf(updateRequest[0]));
+                            updateState(channel.id, StringType.valueOf(updateRequest[0]));
                         } catch (Exception ex) {
                             logger.error("cannot update channel i2c state. input string does not match standarts");
                             for (String string : updateRequest) {
@@ -479,7 +727,9 @@ public class MegaDHandler extends BaseThingHandler {
                             }
                         }
                     }
-                }
+                    break;
+                default:
+                    break;
             }
         }
     }
@@ -530,8 +780,8 @@ public class MegaDHandler extends BaseThingHandler {
     @Override
     protected Configuration editConfiguration() {
         logger.debug("config changed");
-        if (refreshPollingJob != null && !refreshPollingJob.isCancelled()) {
-            refreshPollingJob.cancel(true);
+        if (refreshPollingJob != null) {
+            refreshPollingJob.cancel();
             refreshPollingJob = null;
         }
         return super.editConfiguration();
@@ -541,13 +791,72 @@ public class MegaDHandler extends BaseThingHandler {
     @Override
     public void dispose() {
         logger.debug("Thing Handler for {} stop", getThing().getUID().getId());
-        if (refreshPollingJob != null && !refreshPollingJob.isCancelled()) {
-            refreshPollingJob.cancel(true);
+        eventFilter.cancel();
+        dimmerSlot.cancel();
+        if (refreshPollingJob != null) {
+            refreshPollingJob.cancel();
             refreshPollingJob = null;
         }
         if (bridgeHandler != null) {
             unregisterMegadThingListener(bridgeHandler);
         }
+        MegaDHttpClient client = httpClient;
+        httpClient = null;
+        if (client != null) {
+            client.getCircuitBreaker().removeListener(reachabilityListener);
+            client.release();
+        }
+    }
+
+    /**
+     * Collects the linked channels of the thing, and for every event type the ones it can change.
+     */
+    private void buildChannelTable() {
+        List<LinkedChannel> linked = new ArrayList<>();
+        for (Channel channel : getThing().getChannels()) {
+            String id = channel.getUID().getId();
+            if (isLinked(id)) {
+                linked.add(new LinkedChannel(MegaDChannelKind.of(id), id));
+            }
+        }
+        MegaDEventType[] types = MegaDEventType.values();
+        LinkedChannel[][] byEvent = new LinkedChannel[types.length][];
+        for (MegaDEventType type : types) {
+            byEvent[type.ordinal()] = linked.stream().filter(channel -> channel.kind.accepts(type))
+                    .toArray(LinkedChannel[]::new);
+        }
+        eventChannels = byEvent;
+        linkedChannels = linked.toArray(new LinkedChannel[0]);
+        portPollRequired = linked.stream()
+                .anyMatch(channel -> channel.kind.isPortStatus() && !channel.kind.accepts(MegaDEventType.BULK));
+    }
+
+    /**
+     * @return true if a linked channel needs the "pt=N&cmd=get" poll of the port, as the bulk status of the
+     *         controller cannot express its state
+     */
+    boolean isPortPollRequired() {
+        return portPollRequired;
+    }
+
+    private static class LinkedChannel {
+        final MegaDChannelKind kind;
+        final String id;
+
+        LinkedChannel(MegaDChannelKind kind, String id) {
+            this.kind = kind;
+            this.id = id;
+        }
+    }
+
+    private static class CachedState {
+        final State state;
+        final long updated;
+
+        CachedState(State state, long updated) {
+            this.state = state;
+            this.updated = updated;
+        }
     }
 
     private void unregisterMegadThingListener(@Nullable MegaDBridgeHandler bridgeHandler) {
@@ -559,47 +868,57 @@ public class MegaDHandler extends BaseThingHandler {
         }
     }
 
-    private String[] sendRequest(String[] URL) {
-        String[] result = { "", "", "", "" };
-        int count = 0;
-        if (getThing().getConfiguration().get("i2c_par") != null) {
-            URL[2] += "&i2c_par=" + getThing().getConfiguration().get("i2c_par").toString();
-        }
-        for (String url : URL) {
-            if (!url.equals("")) {
-                try {
-                    URL obj = new URL(url);
-                    HttpURLConnection con;
-
-                    con = (HttpURLConnection) obj.openConnection();
-
-                    logger.debug(url);
-
-                    con.setRequestMethod("GET");
-                    // con.setReadTimeout(500);
-                    con.setReadTimeout(1500);
-                    con.setConnectTimeout(1500);
-                    // add request header
-                    con.setRequestProperty("User-Agent", "Mozilla/5.0");
-
-                    BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-                    String inputLine;
-                    StringBuilder response = new StringBuilder();
-
-                    while ((inputLine = in.readLine()) != null) {
-                        response.append(inputLine);
-                    }
-                    in.close();
-                    logger.debug("input string-> {}", response.toString());
-                    result[count] = response.toString().trim();
-                    con.disconnect();
-                } catch (IOException e) {
+    /**
+     * Queues the poll requests at once, without waiting for each response before queueing the next request. The
+     * client sends them one after the other.
+     *
+     * @return the responses at the index of their queries, empty for failed requests and for requests that did not
+     *         complete in time; those not sent by then are skipped, see {@link #REQUEST_DEADLINE}
+     */
+    private CompletableFuture<String[]> sendRequest(MegaDHttpClient client, String[] queries) {
+        AtomicReferenceArray<String> responses = new AtomicReferenceArray<>(queries.length);
+        List<CompletableFuture<String>> sent = new ArrayList<>(queries.length);
+        CompletableFuture<?>[] requests = new CompletableFuture<?>[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            int index = i;
+            String query = queries[i];
+            if (query.equals("")) {
+                requests[i] = CompletableFuture.completedFuture(null);
+                continue;
+            }
+            logger.debug(query);
+            CompletableFuture<String> request = client.getAsync(query);
+            sent.add(request);
+            requests[i] = request.whenComplete((response, error) -> {
+                if (error instanceof CancellationException) {
+                    logger.debug("Query {} dropped, the poll of {} did not complete in time", query,
+                            getThing().getUID().getId());
+                } else if (isUnreachable(error)) {
+                    logger.debug("Query {} not sent: {}", query, error.getLocalizedMessage());
+                } else if (error != null) {
                     logger.error("Connect to megadevice {} error: {}",
-                            getThing().getConfiguration().get("hostname").toString(), e.getLocalizedMessage());
+                            getThing().getConfiguration().get("hostname").toString(), error.getLocalizedMessage());
+                } else {
+                    logger.debug("input string-> {}", response);
+                    responses.set(index, response);
                 }
-                count++;
-            }
+            });
         }
-        return result;
+        CompletableFuture<Void> all = CompletableFuture.allOf(requests);
+        // requests still waiting in the queue of the client are cancelled, so they do not hold up later polls and
+        // commands; one already being sent completes within the socket timeout
+        ScheduledFuture<?> deadline = scheduler.schedule(() -> sent.forEach(request -> request.cancel(false)),
+                2L * sent.size() * REQUEST_DEADLINE, TimeUnit.MILLISECONDS);
+        return all.handle((done, error) -> {
+            deadline.cancel(false);
+            String[] result = { "", "", "", "" };
+            for (int i = 0; i < result.length && i < queries.length; i++) {
+                String response = responses.get(i);
+                if (response != null) {
+                    result[i] = response;
+                }
+            }
+            return result;
+        });
     }
 }
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link MegaDPollGate} skips polls of a status the controller keeps pushing anyway.
+ *
+ * A poll is skipped while the last push is younger than the poll interval. After {@link #MAX_SKIPPED} skipped
+ * polls in a row one is done anyway, in case a push got lost. Once the pushes stop, every poll is done again.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+class MegaDPollGate {
+
+    static final int MAX_SKIPPED = 10;
+
+    private volatile boolean pushed;
+    private volatile long lastPush;
+    private int skippedInARow;
+    private long polls;
+    private long skipped;
+
+    /**
+     * Called when the controller pushed the status.
+     */
+    void pushed() {
+        lastPush = System.nanoTime();
+        pushed = true;
+    }
+
+    /**
+     * Called when a poll is due.
+     *
+     * @param adaptive false to poll regardless of pushes
+     * @return false if the poll is skipped
+     */
+    synchronized boolean shouldPoll(long intervalNanos, boolean adaptive) {
+        polls++;
+        if (adaptive && pushed && System.nanoTime() - lastPush < intervalNanos && skippedInARow < MAX_SKIPPED) {
+            skippedInARow++;
+            skipped++;
+            return false;
+        }
+        skippedInARow = 0;
+        return true;
+    }
+
+    /**
+     * @return number of due polls, including skipped ones
+     */
+    synchronized long getPolls() {
+        return polls;
+    }
+
+    synchronized long getSkipped() {
+        return skipped;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openhab.binding.megad.internal.MegaDEvent;
+
+/**
+ * The {@link MegaDPortStateTable} remembers the last port states a controller reported in a bulk
+ * ("all=") push, so only ports that changed are dispatched to their handlers.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+class MegaDPortStateTable {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte SWITCH = 1;
+    private static final byte VALUE = 2;
+    private static final byte TEXT = 3;
+
+    private final BitSet on = new BitSet();
+    private byte[] kinds = new byte[64];
+    private long[] values = new long[64];
+    private long[] counters = new long[64];
+    private byte[][] texts = new byte[64][];
+
+    /**
+     * Compares the port status with the stored one and stores it.
+     *
+     * @param portEvent status of one port, as filled by
+     *            {@link org.openhab.binding.megad.internal.MegaDEventParser#nextBulkPort}
+     * @return true if the status differs from the last reported one
+     */
+    synchronized boolean update(MegaDEvent portEvent) {
+        int port = portEvent.getPort();
+        if (port < 0) {
+            return true;
+        }
+        ensureCapacity(port);
+        byte kind = kindOf(portEvent);
+        boolean changed = kinds[port] != kind;
+        switch (kind) {
+            case SWITCH:
+                boolean isOn = portEvent.getSwitchState() == MegaDEvent.SWITCH_ON;
+                long counter = portEvent.hasCounter() ? portEvent.getCounter() : -1;
+                changed |= on.get(port) != isOn || counters[port] != counter;
+                on.set(port, isOn);
+                counters[port] = counter;
+                break;
+            case VALUE:
+                changed |= values[port] != portEvent.getValue();
+                values[port] = portEvent.getValue();
+                break;
+            case TEXT:
+                changed |= storeText(port, portEvent);
+                break;
+            default:
+                break;
+        }
+        kinds[port] = kind;
+        return changed;
+    }
+
+    /**
+     * Forgets the state of a port, so the next bulk push dispatches it again. Used when the port state was
+     * changed or reported by other means.
+     */
+    synchronized void invalidate(int port) {
+        if (port >= 0 && port < kinds.length) {
+            kinds[port] = UNKNOWN;
+        }
+    }
+
+    private static byte kindOf(MegaDEvent portEvent) {
+        if (portEvent.getSwitchState() != MegaDEvent.SWITCH_NONE) {
+            return SWITCH;
+        } else if (portEvent.hasValue()) {
+            return VALUE;
+        }
+        return TEXT;
+    }
+
+    private boolean storeText(int port, MegaDEvent portEvent) {
+        int length = portEvent.getTextLength();
+        byte[] stored = texts[port];
+        boolean changed = stored == null || stored.length != length
+                || !portEvent.textEquals(stored, 0, stored.length);
+        if (changed) {
+            stored = stored != null && stored.length == length ? stored : new byte[length];
+            portEvent.copyText(stored, 0);
+            texts[port] = stored;
+        }
+        return changed;
+    }
+
+    private void ensureCapacity(int port) {
+        if (port >= kinds.length) {
+            int size = Math.max(port + 1, kinds.length * 2);
+            kinds = Arrays.copyOf(kinds, size);
+            values = Arrays.copyOf(values, size);
+            counters = Arrays.copyOf(counters, size);
+            texts = Arrays.copyOf(texts, size);
+        }
+    }
+}
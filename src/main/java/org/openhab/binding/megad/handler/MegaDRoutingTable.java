@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.megad.internal.MegaDCallbackListener;
+
+/**
+ * The {@link MegaDRoutingTable} routes incoming megad events to the registered {@link MegaDHandler}s.
+ *
+ * Every controller address gets an interned id once, handlers of a controller are kept in an array indexed by
+ * port. Lookups never lock; registrations copy the affected arrays.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+class MegaDRoutingTable {
+
+    private static final MegaDHandler[] NO_HANDLERS = new MegaDHandler[0];
+
+    private final ConcurrentMap<String, Integer> controllerIds = new ConcurrentHashMap<>();
+    private volatile Controller[] controllers = new Controller[0];
+
+    /**
+     * Maps loopback addresses to "localhost", the way things are usually configured for a local controller.
+     */
+    static String normalizeHost(String host) {
+        switch (host) {
+            case "0:0:0:0:0:0:0:1":
+            case "::1":
+            case "127.0.0.1":
+                return "localhost";
+            default:
+                return host;
+        }
+    }
+
+    /**
+     * @return the id of the controller at the given address, or {@link MegaDCallbackListener#UNKNOWN_CONTROLLER}
+     *         if no thing is configured for it
+     */
+    int controllerId(String hostAddress) {
+        Integer id = controllerIds.get(normalizeHost(hostAddress));
+        return id != null ? id : MegaDCallbackListener.UNKNOWN_CONTROLLER;
+    }
+
+    @Nullable
+    MegaDHandler get(int controllerId, int port) {
+        Controller[] controllers = this.controllers;
+        if (controllerId < 0 || controllerId >= controllers.length || port < 0) {
+            return null;
+        }
+        MegaDHandler[] ports = controllers[controllerId].ports;
+        return port < ports.length ? ports[port] : null;
+    }
+
+    /**
+     * @return all handlers of the controller, for events that concern the whole device
+     */
+    MegaDHandler[] getAll(int controllerId) {
+        Controller[] controllers = this.controllers;
+        if (controllerId < 0 || controllerId >= controllers.length) {
+            return NO_HANDLERS;
+        }
+        return controllers[controllerId].all;
+    }
+
+    /**
+     * @return the last bulk-reported port states of the controller, or null if no thing is configured for it
+     */
+    @Nullable
+    MegaDPortStateTable getPortStates(int controllerId) {
+        Controller[] controllers = this.controllers;
+        if (controllerId < 0 || controllerId >= controllers.length) {
+            return null;
+        }
+        return controllers[controllerId].portStates;
+    }
+
+    /**
+     * @return all registered handlers of all controllers
+     */
+    MegaDHandler[] getAll() {
+        MegaDHandler[] result = NO_HANDLERS;
+        for (Controller controller : controllers) {
+            MegaDHandler[] all = controller.all;
+            if (all.length > 0) {
+                result = Arrays.copyOf(result, result.length + all.length);
+                System.arraycopy(all, 0, result, result.length - all.length, all.length);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the handler receives the port status contained in the bulk status of its controller
+     */
+    boolean isRouted(String host, String port, MegaDHandler handler) {
+        int portNumber = parsePort(port);
+        return portNumber >= 0 && get(controllerId(host), portNumber) == handler;
+    }
+
+    /**
+     * Registers a handler and replaces a handler registered before for the same controller and port.
+     *
+     * @return the replaced handler
+     */
+    synchronized @Nullable MegaDHandler register(String host, String port, MegaDHandler handler) {
+        Controller controller = controller(normalizeHost(host));
+        MegaDHandler previous = remove(controller, port, null);
+        int portNumber = parsePort(port);
+        if (portNumber >= 0) {
+            MegaDHandler[] ports = controller.ports;
+            if (portNumber >= ports.length) {
+                ports = Arrays.copyOf(ports, portNumber + 1);
+            } else {
+                ports = ports.clone();
+            }
+            ports[portNumber] = handler;
+            controller.ports = ports;
+            controller.portStates.invalidate(portNumber);
+        }
+        MegaDHandler[] all = Arrays.copyOf(controller.all, controller.all.length + 1);
+        all[all.length - 1] = handler;
+        controller.all = all;
+        controller.portNames = appendName(controller.portNames, port);
+        return previous;
+    }
+
+    /**
+     * Removes the handler registered for the controller and port, if it is the given one.
+     *
+     * @return true if the handler was registered
+     */
+    synchronized boolean unregister(String host, String port, MegaDHandler handler) {
+        Integer id = controllerIds.get(normalizeHost(host));
+        return id != null && remove(controllers[id], port, handler) != null;
+    }
+
+    /**
+     * Forgets the bulk-reported state of a port, so the next bulk push dispatches it again.
+     */
+    void invalidatePortState(String host, String port) {
+        MegaDPortStateTable portStates = getPortStates(controllerId(host));
+        if (portStates != null) {
+            portStates.invalidate(parsePort(port));
+        }
+    }
+
+    private @Nullable MegaDHandler remove(Controller controller, String port, @Nullable MegaDHandler expected) {
+        int index = Arrays.asList(controller.portNames).indexOf(port);
+        if (index < 0 || (expected != null && controller.all[index] != expected)) {
+            return null;
+        }
+        MegaDHandler removed = controller.all[index];
+        int portNumber = parsePort(port);
+        if (portNumber >= 0 && portNumber < controller.ports.length) {
+            MegaDHandler[] ports = controller.ports.clone();
+            ports[portNumber] = null;
+            controller.ports = ports;
+        }
+        controller.all = removeIndex(controller.all, index, new MegaDHandler[controller.all.length - 1]);
+        controller.portNames = removeIndex(controller.portNames, index, new String[controller.portNames.length - 1]);
+        return removed;
+    }
+
+    private Controller controller(String host) {
+        Integer id = controllerIds.get(host);
+        if (id != null) {
+            return controllers[id];
+        }
+        Controller[] extended = Arrays.copyOf(controllers, controllers.length + 1);
+        Controller controller = new Controller(extended.length - 1);
+        extended[controller.id] = controller;
+        controllers = extended;
+        controllerIds.put(host, controller.id);
+        return controller;
+    }
+
+    private static int parsePort(String port) {
+        try {
+            return Integer.parseInt(port.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String[] appendName(String[] names, String name) {
+        String[] result = Arrays.copyOf(names, names.length + 1);
+        result[names.length] = name;
+        return result;
+    }
+
+    private static <T> T[] removeIndex(T[] source, int index, T[] target) {
+        System.arraycopy(source, 0, target, 0, index);
+        System.arraycopy(source, index + 1, target, index, source.length - index - 1);
+        return target;
+    }
+
+    /**
+     * Handlers of one controller. The arrays are replaced, never modified, once published.
+     */
+    private static class Controller {
+        final int id;
+        volatile @Nullable MegaDHandler[] ports = NO_HANDLERS;
+        volatile MegaDHandler[] all = NO_HANDLERS;
+        volatile String[] portNames = new String[0];
+        final MegaDPortStateTable portStates = new MegaDPortStateTable();
+
+        Controller(int id) {
+            this.id = id;
+        }
+    }
+}
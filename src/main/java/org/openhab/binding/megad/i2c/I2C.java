@@ -13,10 +13,6 @@
 package org.openhab.binding.megad.i2c;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.ProtocolException;
-import java.net.URL;
 import java.util.HashMap;
 
 import org.apache.commons.codec.binary.Hex;
@@ -24,6 +20,8 @@ import org.apache.commons.codec.binary.StringUtils;
 import org.apache.commons.lang.ArrayUtils;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.megad.internal.MegaDCircuitBreaker;
+import org.openhab.binding.megad.internal.MegaDHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,39 +32,40 @@ import org.slf4j.LoggerFactory;
 public class I2C {
 
     private Logger logger = LoggerFactory.getLogger(I2C.class);
-    String host;
+    MegaDHttpClient client;
     String sda;
     String scl;
-    String password;
     int low = 0;
     int high = 1;
 
     HashMap<String, int[]> symbol = new HashMap<String, int[]>();
 
     public I2C(String host, String password, String port, String scl) {
-        this.host = host;
+        this(new MegaDHttpClient(host, password), port, scl);
+    }
+
+    public I2C(MegaDHttpClient client, String port, String scl) {
+        this.client = client;
         this.sda = port;
         this.scl = scl;
-        this.password = password;
     }
 
     private void i2cStop() {
         logger.debug("stopping...");
-        String request = "http://" + this.host + "/" + this.password + "/?" + "cmd=" + this.sda + ":" + low + ";"
-                + this.scl + ":" + high + ";" + this.sda + ":" + high;
+        String request = "cmd=" + this.sda + ":" + low + ";" + this.scl + ":" + high + ";" + this.sda + ":" + high;
         sendCommand(request);
     }
 
     private void i2cInit() {
-        String request = "http://" + this.host + "/" + this.password + "/?" + "cmd=" + this.scl + ":" + high + ";"
-                + this.sda + ":" + high;
+        String request = "cmd=" + this.scl + ":" + high + ";" + this.sda + ":" + high;
         sendCommand(request);
     }
 
     private void i2cSend(String data) {
         logger.debug("sending...");
-        String request = "http://" + this.host + "/" + this.password + "/?" + "pt=" + this.sda + "&i2c="
-                + Integer.parseInt(data, 16) + "&scl=" + this.scl + ":1;" + this.scl + ":0;";
+        String request = "pt=" + this.sda + "&i2c=" + Integer.parseInt(data, 16) + "&scl=" + this.scl + ":1;"
+                + this.scl + ":0;";
+
         sendCommand(request);
 
         // file_get_contents(MD."pt=".SDA."&i2c=".hexdec($data)."&scl=".SCL.":1;".SCL.":0;");
@@ -74,39 +73,22 @@ public class I2C {
 
     private void i2cStart() {
         logger.debug("start...");
-        String request = "http://" + this.host + "/" + this.password + "/?" + "cmd=" + this.sda + ":" + low + ";"
-                + this.scl + ":" + low;
+        String request = "cmd=" + this.sda + ":" + low + ";" + this.scl + ":" + low;
         sendCommand(request);
     }
 
-    private void sendCommand(String Result) {
-        // logger.debug(Result);
-        HttpURLConnection con;
-
-        URL megaURL;
-
+    private void sendCommand(String query) {
         try {
-            megaURL = new URL(Result);
-            con = (HttpURLConnection) megaURL.openConnection();
-            // optional default is GET
-            // con.setReadTimeout(500);
-            // con.setConnectTimeout(500);
-            con.setRequestMethod("GET");
-
-            // add request header
-            con.setRequestProperty("User-Agent", "Mozilla/5.0");
-            if (con.getResponseCode() == 200) {
+            int status = client.send(query);
+            if (status == 200) {
                 logger.debug("OK");
             } else {
-                logger.debug("{}", con.getResponseMessage());
+                logger.debug("{}", status);
             }
-            con.disconnect();
-        } catch (MalformedURLException e) {
-            logger.error("1 - {}", e.getLocalizedMessage());
-        } catch (ProtocolException e) {
-            logger.error("2 - {}", e.getLocalizedMessage());
+        } catch (MegaDCircuitBreaker.MegaDUnreachableException e) {
+            logger.debug("I2C command not sent: {}", e.getLocalizedMessage());
         } catch (IOException e) {
-            logger.error("Connect to megadevice {} error: {}", host, e.getLocalizedMessage());
+            logger.error("Connect to megadevice {} error: {}", client.getHostname(), e.getLocalizedMessage());
         }
     }
 
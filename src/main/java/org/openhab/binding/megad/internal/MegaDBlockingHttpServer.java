@@ -0,0 +1,351 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.megad.MegaDConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link MegaDBlockingHttpServer} accepts megad connections with plain blocking sockets and handles
+ * every accepted connection on its own thread.
+ *
+ * Virtual threads are used when the running JVM provides them, otherwise a cached pool of daemon threads.
+ * With keep-alive enabled a thread serves requests of its connection until it stays idle for the timeout.
+ * A request must arrive completely within the read timeout, so a slow peer only holds its own thread.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public class MegaDBlockingHttpServer implements MegaDServer {
+
+    private static final int EMPTY_LINE = 0;
+    private static final int END_OF_STREAM = -1;
+    private static final int TOO_LONG = -2;
+    private static final int INVALID = -3;
+
+    private final Logger logger = LoggerFactory.getLogger(MegaDBlockingHttpServer.class);
+
+    private final int port;
+    private final boolean reusePort;
+    private final MegaDCallbackListener listener;
+    private final String threadName;
+    private final boolean keepAlive;
+    private final long keepAliveTimeoutNanos;
+    private final long readTimeoutNanos;
+    private final int maxLineLength;
+    private final int maxConnections;
+    private final MegaDServerStats stats;
+    private @Nullable ServerSocket serverSocket;
+    private @Nullable ExecutorService executor;
+    private volatile boolean running;
+
+    /**
+     * @param port port to listen on
+     * @param reusePort share the port with other listeners
+     * @param stats connection counters shared by all listeners of the bridge
+     */
+    public MegaDBlockingHttpServer(MegaDConfiguration configuration, int port, boolean reusePort,
+            MegaDServerStats stats, MegaDCallbackListener listener, String threadName) {
+        this.port = port;
+        this.reusePort = reusePort;
+        this.listener = listener;
+        this.threadName = threadName;
+        this.keepAlive = configuration.keepAlive;
+        this.keepAliveTimeoutNanos = TimeUnit.SECONDS.toNanos(configuration.keepAliveTimeout);
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(configuration.readTimeout);
+        this.maxLineLength = Math.max(16, Math.min(configuration.maxLineLength, MegaDEvent.MAX_LINE_LENGTH));
+        this.maxConnections = configuration.maxConnections;
+        this.stats = stats;
+    }
+
+    @Override
+    public void open() throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        try {
+            serverSocket.setReuseAddress(true);
+            if (reusePort) {
+                MegaDSocketOptions.enableReusePort(serverSocket);
+            }
+            serverSocket.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        this.serverSocket = serverSocket;
+        this.executor = createExecutor(threadName);
+        running = true;
+    }
+
+    @Override
+    public int getLocalPort() {
+        ServerSocket serverSocket = this.serverSocket;
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        ServerSocket serverSocket = this.serverSocket;
+        ExecutorService executor = this.executor;
+        if (serverSocket == null || executor == null) {
+            return;
+        }
+        try {
+            while (running) {
+                Socket socket = serverSocket.accept();
+                if (!stats.tryOpen(maxConnections)) {
+                    logger.debug("Too many open connections, rejecting");
+                    closeQuietly(socket);
+                    continue;
+                }
+                try {
+                    long accepted = System.nanoTime();
+                    executor.execute(() -> handleConnection(socket, accepted));
+                } catch (RejectedExecutionException e) {
+                    closeSocket(socket);
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                logger.error("ERROR in bridge. Incoming server has error: {}", e.getMessage());
+            }
+        } finally {
+            running = false;
+            executor.shutdownNow();
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                logger.debug("{}", e.getLocalizedMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        ServerSocket serverSocket = this.serverSocket;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                logger.debug("{}", e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private void handleConnection(Socket socket, long accepted) {
+        String hostAddress = socket.getInetAddress().getHostAddress();
+        int controllerId = listener.resolveController(hostAddress);
+        byte[] line = new byte[maxLineLength];
+        byte[] header = keepAlive ? new byte[maxLineLength] : line;
+        try {
+            socket.setTcpNoDelay(true);
+            RequestReader reader = new RequestReader(socket);
+            OutputStream os = socket.getOutputStream();
+            long idleTimeout = readTimeoutNanos;
+            long received = accepted;
+            boolean persistent = true;
+            while (persistent) {
+                if (!reader.awaitRequest(System.nanoTime() + idleTimeout)) {
+                    break;
+                }
+                // the read timeout runs from the first byte of a request
+                long now = System.nanoTime();
+                reader.deadline = now + readTimeoutNanos;
+                if (received == 0) {
+                    received = now;
+                }
+                int length = reader.readLine(line, true);
+                if (length == EMPTY_LINE) {
+                    continue;
+                } else if (length < 0) {
+                    reject(hostAddress, length);
+                    break;
+                }
+                persistent = false;
+                if (keepAlive) {
+                    boolean http10 = MegaDHttpProtocol.isHttp10(line, 0, length);
+                    int connectionHeader = MegaDHttpProtocol.CONNECTION_DEFAULT;
+                    int headerLength;
+                    while ((headerLength = reader.readLine(header, false)) > 0) {
+                        if (connectionHeader == MegaDHttpProtocol.CONNECTION_DEFAULT) {
+                            connectionHeader = MegaDHttpProtocol.connectionHeader(header, 0, headerLength);
+                        }
+                    }
+                    if (headerLength == TOO_LONG) {
+                        reject(hostAddress, headerLength);
+                        break;
+                    }
+                    persistent = headerLength == EMPTY_LINE
+                            && MegaDHttpProtocol.isPersistent(http10, connectionHeader);
+                }
+                os.write(MegaDHttpProtocol.response(persistent));
+                os.flush();
+                dispatch(hostAddress, controllerId, line, length, received);
+                idleTimeout = keepAliveTimeoutNanos;
+                received = 0;
+            }
+        } catch (SocketTimeoutException e) {
+            logger.debug("Request from {} timed out, closing", hostAddress);
+            stats.timedOut();
+        } catch (IOException e) {
+            logger.debug("Connection error: {}", e.getMessage());
+        } finally {
+            closeSocket(socket);
+        }
+    }
+
+    private void reject(String hostAddress, int reason) {
+        if (reason == TOO_LONG) {
+            logger.debug("Request line from {} is too long, closing", hostAddress);
+            stats.oversized();
+        } else if (reason == INVALID) {
+            logger.debug("Request from {} is no GET request, closing", hostAddress);
+            stats.invalid();
+        }
+    }
+
+    private void dispatch(String hostAddress, int controllerId, byte[] line, int length, long received) {
+        try {
+            listener.callbackReceived(hostAddress, controllerId, line, length, received);
+        } catch (RuntimeException e) {
+            logger.warn("Cannot parse request from {}: {}", hostAddress, e.getMessage());
+        }
+    }
+
+    /**
+     * Buffered reader of request lines that enforces a deadline: before every blocking read the socket timeout is
+     * set to the time left.
+     */
+    private static class RequestReader {
+        private final Socket socket;
+        private final InputStream in;
+        private final byte[] buffer = new byte[512];
+        private int position;
+        private int limit;
+        long deadline;
+
+        RequestReader(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = socket.getInputStream();
+        }
+
+        /**
+         * Waits for the first byte of the next request.
+         *
+         * @return false if the peer closed the connection or stayed idle until the deadline
+         */
+        boolean awaitRequest(long idleDeadline) throws IOException {
+            deadline = idleDeadline;
+            try {
+                return position < limit || fill();
+            } catch (SocketTimeoutException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Reads one line without terminator.
+         *
+         * @param requestLine reject the line as soon as it cannot start a GET request
+         * @return length of the line, {@link #EMPTY_LINE}, {@link #END_OF_STREAM}, {@link #TOO_LONG} or
+         *         {@link #INVALID}
+         */
+        int readLine(byte[] line, boolean requestLine) throws IOException {
+            int length = 0;
+            while (true) {
+                if (position == limit && !fill()) {
+                    return length > 0 ? length : END_OF_STREAM;
+                }
+                byte b = buffer[position++];
+                if (b == '\n') {
+                    if (length > 0 && line[length - 1] == '\r') {
+                        length--;
+                    }
+                    return length > 0 ? length : EMPTY_LINE;
+                }
+                if (length == line.length) {
+                    return TOO_LONG;
+                }
+                line[length++] = b;
+                if (requestLine && length <= 4 && !MegaDHttpProtocol.isRequestStart(line, length)) {
+                    return INVALID;
+                }
+            }
+        }
+
+        private boolean fill() throws IOException {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                throw new SocketTimeoutException();
+            }
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, remaining));
+            int count = in.read(buffer);
+            if (count <= 0) {
+                return false;
+            }
+            position = 0;
+            limit = count;
+            return true;
+        }
+    }
+
+    private void closeSocket(Socket socket) {
+        stats.closed();
+        closeQuietly(socket);
+    }
+
+    private void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.debug("{}", e.getLocalizedMessage());
+        }
+    }
+
+    private static ExecutorService createExecutor(String threadName) {
+        try {
+            Method virtualExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtualExecutor.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // virtual threads are not available on this JVM
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, threadName + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link MegaDCallbackListener} receives request lines sent by megad to the bridge server.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public interface MegaDCallbackListener {
+
+    int UNKNOWN_CONTROLLER = -1;
+
+    /**
+     * Called once for every accepted connection to look up the controller that opened it.
+     *
+     * @param hostAddress address of the controller that opened the connection
+     * @return controller id to pass with every request of the connection, or {@link #UNKNOWN_CONTROLLER}
+     */
+    int resolveController(String hostAddress);
+
+    /**
+     * Called once for every request line read from a megad connection. The buffer is only valid during the call.
+     *
+     * @param hostAddress address of the controller that opened the connection
+     * @param controllerId id returned by {@link #resolveController(String)} for this connection
+     * @param requestLine buffer holding the first line of the HTTP request
+     * @param length length of the request line, without line terminator
+     * @param receivedNanos {@link System#nanoTime()} when the connection was accepted, or when the first byte of a
+     *            later request on the same connection was read
+     */
+    void callbackReceived(String hostAddress, int controllerId, byte[] requestLine, int length, long receivedNanos);
+}
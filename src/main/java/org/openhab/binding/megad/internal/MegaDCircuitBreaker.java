@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link MegaDCircuitBreaker} stops sending requests to a controller that does not answer.
+ *
+ * After a number of failed requests in a row the breaker opens: requests fail at once with a
+ * {@link MegaDUnreachableException} instead of waiting for the timeout. Once per backoff interval one request is
+ * let through as a probe. A failed probe doubles the interval up to {@link #MAX_BACKOFF_FACTOR} times the first
+ * one, a successful probe closes the breaker. Listeners learn when the controller is lost and when it is back.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public final class MegaDCircuitBreaker {
+
+    public static final int MAX_BACKOFF_FACTOR = 16;
+
+    private final Logger logger = LoggerFactory.getLogger(MegaDCircuitBreaker.class);
+
+    private final String hostname;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private int threshold = 3;
+    private long initialBackoffNanos = TimeUnit.SECONDS.toNanos(5);
+    private int failures;
+    private boolean open;
+    private long backoffNanos;
+    private long retryAt;
+
+    MegaDCircuitBreaker(String hostname) {
+        this.hostname = hostname;
+    }
+
+    /**
+     * Is told when the controller stops answering and when it answers again.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void reachabilityChanged(boolean reachable);
+    }
+
+    /**
+     * @param threshold failed requests in a row that open the breaker, 0 to never open it
+     * @param backoffMillis time until the first probe
+     */
+    public synchronized void configure(int threshold, long backoffMillis) {
+        this.threshold = threshold;
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, backoffMillis));
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return false while requests fail at once
+     */
+    public synchronized boolean isReachable() {
+        return !open;
+    }
+
+    /**
+     * @return false if a request would be rejected now, so it need not be queued
+     */
+    synchronized boolean isProbeDue() {
+        return !open || System.nanoTime() - retryAt >= 0;
+    }
+
+    /**
+     * Called right before a request is sent.
+     *
+     * @throws MegaDUnreachableException if the breaker is open and no probe is due
+     */
+    synchronized void acquire() throws MegaDUnreachableException {
+        if (!open) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - retryAt < 0) {
+            throw new MegaDUnreachableException(hostname);
+        }
+        // this request is the probe, the next one waits for another interval
+        retryAt = now + backoffNanos;
+    }
+
+    void succeeded() {
+        boolean recovered;
+        synchronized (this) {
+            failures = 0;
+            recovered = open;
+            open = false;
+        }
+        if (recovered) {
+            logger.info("Megadevice {} answers again", hostname);
+            notifyListeners(true);
+        }
+    }
+
+    void failed() {
+        boolean tripped = false;
+        synchronized (this) {
+            failures++;
+            long now = System.nanoTime();
+            if (open) {
+                backoffNanos = Math.min(backoffNanos * 2, initialBackoffNanos * MAX_BACKOFF_FACTOR);
+                retryAt = now + backoffNanos;
+            } else if (threshold > 0 && failures >= threshold) {
+                open = true;
+                tripped = true;
+                backoffNanos = initialBackoffNanos;
+                retryAt = now + backoffNanos;
+            }
+        }
+        if (tripped) {
+            logger.warn("Megadevice {} does not answer, requests to it fail at once until it answers again",
+                    hostname);
+            notifyListeners(false);
+        }
+    }
+
+    private void notifyListeners(boolean reachable) {
+        for (Listener listener : listeners) {
+            try {
+                listener.reachabilityChanged(reachable);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to notify about megadevice {}: {}", hostname, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Thrown instead of sending a request to a controller that does not answer.
+     */
+    public static class MegaDUnreachableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        MegaDUnreachableException(String hostname) {
+            super("Megadevice " + hostname + " does not answer, request not sent");
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link MegaDCommandBatcher} joins the port commands sent to a controller within a short window into one
+ * "cmd=7:1;8:0;9:255" request, which the controller executes from left to right.
+ *
+ * The window starts with the first command of a batch. A command that would make the query longer than the limit
+ * sends the batch at once and starts a new one. Every command completes with the result of its batch.
+ *
+ * The window is timed on a scheduler of its own, not on the thread sending the requests, so a request waiting for
+ * the controller does not stretch it; only the joined request is queued on the client.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+class MegaDCommandBatcher {
+
+    private static final String PREFIX = "cmd=";
+
+    private final MegaDHttpClient client;
+
+    private @Nullable ScheduledExecutorService scheduler;
+    private long windowMillis;
+    private int maxLength;
+    private final StringBuilder query = new StringBuilder(PREFIX);
+    private final List<CompletableFuture<Integer>> commands = new ArrayList<>();
+    private @Nullable ScheduledFuture<?> flushJob;
+
+    MegaDCommandBatcher(MegaDHttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @param windowMillis time commands are collected, 0 to send every command on its own
+     * @param maxLength maximum length of the query of a batch
+     * @param scheduler times the window
+     */
+    synchronized void configure(long windowMillis, int maxLength, ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        this.windowMillis = Math.max(0, windowMillis);
+        this.maxLength = maxLength;
+        if (this.windowMillis == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * @param command a port command like "7:1"
+     * @return the status code of the request carrying the command
+     */
+    CompletableFuture<Integer> add(String command) {
+        CompletableFuture<Integer> result;
+        synchronized (this) {
+            ScheduledExecutorService scheduler = this.scheduler;
+            if (windowMillis == 0 || scheduler == null) {
+                return client.sendAsync(PREFIX + command);
+            }
+            if (!commands.isEmpty() && query.length() + 1 + command.length() > maxLength) {
+                flush();
+            }
+            if (!commands.isEmpty()) {
+                query.append(';');
+            }
+            query.append(command);
+            result = new CompletableFuture<>();
+            commands.add(result);
+            if (flushJob == null) {
+                flushJob = scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return result;
+    }
+
+    private synchronized void flush() {
+        ScheduledFuture<?> job = flushJob;
+        if (job != null) {
+            job.cancel(false);
+            flushJob = null;
+        }
+        if (commands.isEmpty()) {
+            return;
+        }
+        List<CompletableFuture<Integer>> batch = new ArrayList<>(commands);
+        String batchQuery = query.toString();
+        commands.clear();
+        query.setLength(PREFIX.length());
+        client.sendAsync(batchQuery).whenComplete((status, error) -> {
+            for (CompletableFuture<Integer> command : batch) {
+                if (error != null) {
+                    command.completeExceptionally(error);
+                } else {
+                    command.complete(status);
+                }
+            }
+        });
+    }
+}
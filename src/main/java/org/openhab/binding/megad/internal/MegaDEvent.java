@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link MegaDEvent} is a reusable, typed representation of one megad callback.
+ *
+ * It is filled by {@link MegaDEventParser} and keeps its own copy of the request line, so text values are
+ * only turned into strings when a channel asks for them.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public class MegaDEvent {
+
+    public static final int MAX_LINE_LENGTH = 1024;
+    public static final int NO_PORT = -1;
+    public static final int SWITCH_NONE = -1;
+    public static final int SWITCH_OFF = 0;
+    public static final int SWITCH_ON = 1;
+
+    final byte[] line = new byte[MAX_LINE_LENGTH];
+    int length;
+
+    MegaDEventType type = MegaDEventType.UNKNOWN;
+    int port = NO_PORT;
+    int mode;
+    int switchState = SWITCH_NONE;
+    int clicks;
+    boolean hasValue;
+    long value;
+    boolean hasCounter;
+    long counter;
+    int valueStart;
+    int valueEnd;
+    int textStart;
+    int textEnd;
+    int secondTextStart;
+    int secondTextEnd;
+    int parametersStart;
+    int parametersEnd;
+    long receivedNanos;
+    boolean polled;
+
+    void reset() {
+        length = 0;
+        type = MegaDEventType.UNKNOWN;
+        port = NO_PORT;
+        mode = 0;
+        switchState = SWITCH_NONE;
+        clicks = 0;
+        hasValue = false;
+        value = 0;
+        hasCounter = false;
+        counter = 0;
+        valueStart = valueEnd = 0;
+        textStart = textEnd = 0;
+        secondTextStart = secondTextEnd = 0;
+        parametersStart = parametersEnd = 0;
+        polled = false;
+    }
+
+    /**
+     * Copies another event, e.g. into a preallocated queue slot.
+     */
+    public void copyFrom(MegaDEvent other) {
+        System.arraycopy(other.line, 0, line, 0, other.length);
+        length = other.length;
+        type = other.type;
+        port = other.port;
+        mode = other.mode;
+        switchState = other.switchState;
+        clicks = other.clicks;
+        hasValue = other.hasValue;
+        value = other.value;
+        hasCounter = other.hasCounter;
+        counter = other.counter;
+        valueStart = other.valueStart;
+        valueEnd = other.valueEnd;
+        textStart = other.textStart;
+        textEnd = other.textEnd;
+        secondTextStart = other.secondTextStart;
+        secondTextEnd = other.secondTextEnd;
+        parametersStart = other.parametersStart;
+        parametersEnd = other.parametersEnd;
+        receivedNanos = other.receivedNanos;
+        polled = other.polled;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the request was received
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    public void setReceivedNanos(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * @return true if the binding polled this status, false if the controller pushed it
+     */
+    public boolean isPolled() {
+        return polled;
+    }
+
+    public void setPolled(boolean polled) {
+        this.polled = polled;
+    }
+
+    public MegaDEventType getType() {
+        return type;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return {@link #SWITCH_ON}, {@link #SWITCH_OFF} or {@link #SWITCH_NONE} when the event carries no switch
+     *         state
+     */
+    public int getSwitchState() {
+        return switchState;
+    }
+
+    public int getClicks() {
+        return clicks;
+    }
+
+    public boolean hasValue() {
+        return hasValue;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * @return the raw value, also when it is not an integer, or null if the event has no value
+     */
+    public @Nullable String getValueText() {
+        return valueEnd > valueStart ? text(valueStart, valueEnd) : null;
+    }
+
+    public boolean hasCounter() {
+        return hasCounter;
+    }
+
+    public long getCounter() {
+        return counter;
+    }
+
+    /**
+     * @return wiegand or iButton code, SMS phone or bulk status, depending on the event type
+     */
+    public @Nullable String getText() {
+        return textEnd > textStart ? text(textStart, textEnd) : null;
+    }
+
+    public int getTextLength() {
+        return textEnd - textStart;
+    }
+
+    /**
+     * Compares the text with a region of another buffer without creating a string.
+     */
+    public boolean textEquals(byte[] other, int offset, int length) {
+        if (length != textEnd - textStart) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (line[textStart + i] != other[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void copyText(byte[] target, int offset) {
+        System.arraycopy(line, textStart, target, offset, textEnd - textStart);
+    }
+
+    /**
+     * @return SMS text
+     */
+    public @Nullable String getSecondText() {
+        return secondTextEnd > secondTextStart ? text(secondTextStart, secondTextEnd) : null;
+    }
+
+    /**
+     * @return all query parameters following the port, e.g. "ext0=1&ext1=0"
+     */
+    public String getParameters() {
+        return parametersEnd > parametersStart ? text(parametersStart, parametersEnd) : "";
+    }
+
+    public String getLine() {
+        return text(0, length);
+    }
+
+    private String text(int start, int end) {
+        return new String(line, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return type + " port " + port + ": " + getLine();
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link MegaDEventParser} parses megad request lines like "GET /megad.php?pt=0&m=1 HTTP/1.1" in a single
+ * pass over the bytes and fills a reusable {@link MegaDEvent}. Nothing is allocated while parsing.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public final class MegaDEventParser {
+
+    private static final byte[] PT = bytes("pt");
+    private static final byte[] M = bytes("m");
+    private static final byte[] CLICK = bytes("click");
+    private static final byte[] CNT = bytes("cnt");
+    private static final byte[] V = bytes("v");
+    private static final byte[] WG = bytes("wg");
+    private static final byte[] IB = bytes("ib");
+    private static final byte[] EXT = bytes("ext");
+    private static final byte[] ST = bytes("st");
+    private static final byte[] SMS_PHONE = bytes("sms_phone");
+    private static final byte[] SMS_TEXT = bytes("sms_text");
+    private static final byte[] ALL = bytes("all");
+    private static final byte[] ON = bytes("ON");
+    private static final byte[] OFF = bytes("OFF");
+
+    private static final int SEEN_CLICK = 1;
+    private static final int SEEN_VALUE = 1 << 1;
+    private static final int SEEN_WIEGAND = 1 << 2;
+    private static final int SEEN_IBUTTON = 1 << 3;
+    private static final int SEEN_EXTENDER = 1 << 4;
+    private static final int SEEN_STATUS = 1 << 5;
+    private static final int SEEN_SMS = 1 << 6;
+    private static final int SEEN_ALL = 1 << 7;
+
+    private MegaDEventParser() {
+    }
+
+    /**
+     * Parses a request line.
+     *
+     * @param source buffer holding the request line
+     * @param length length of the request line, without line terminator
+     * @param event event to fill
+     * @return false if the line is not a megad GET request with query parameters
+     */
+    public static boolean parse(byte[] source, int length, MegaDEvent event) {
+        event.reset();
+        int len = Math.min(length, MegaDEvent.MAX_LINE_LENGTH);
+        System.arraycopy(source, 0, event.line, 0, len);
+        event.length = len;
+
+        byte[] b = event.line;
+        if (len < 5 || b[0] != 'G' || b[1] != 'E' || b[2] != 'T' || b[3] != ' ') {
+            return false;
+        }
+        int query = indexOf(b, '?', 4, len);
+        if (query < 0) {
+            return false;
+        }
+        int end = indexOf(b, ' ', query + 1, len);
+        if (end < 0) {
+            end = len;
+        }
+
+        int seen = 0;
+        int position = query + 1;
+        while (position < end) {
+            int nameStart = position;
+            int separator = -1;
+            while (position < end && b[position] != '&') {
+                if (b[position] == '=' && separator < 0) {
+                    separator = position;
+                }
+                position++;
+            }
+            int nameEnd = separator < 0 ? position : separator;
+            int valueStart = separator < 0 ? position : separator + 1;
+            seen |= parameter(event, nameStart, nameEnd, valueStart, position, end);
+            position++;
+        }
+
+        event.type = resolveType(event, seen);
+        return true;
+    }
+
+    /**
+     * Parses the status of one port from the payload of a {@link MegaDEventType#BULK} event, e.g. "ON/12" or "255".
+     *
+     * @param bulk parsed bulk event
+     * @param position offset inside the payload, 0 for the first port
+     * @param port number of the port at this position
+     * @param out event to fill with the port status
+     * @return offset of the next port, or -1 if the payload has no more ports
+     */
+    public static int nextBulkPort(MegaDEvent bulk, int position, int port, MegaDEvent out) {
+        int start = bulk.textStart + position;
+        if (bulk.type != MegaDEventType.BULK || start > bulk.textEnd || bulk.textStart == bulk.textEnd) {
+            return -1;
+        }
+        int end = indexOf(bulk.line, ';', start, bulk.textEnd);
+        if (end < 0) {
+            end = bulk.textEnd;
+        }
+
+        out.reset();
+        int len = end - start;
+        System.arraycopy(bulk.line, start, out.line, 0, len);
+        out.length = len;
+        out.type = MegaDEventType.BULK;
+        out.port = port;
+        out.receivedNanos = bulk.receivedNanos;
+        out.polled = bulk.polled;
+
+        byte[] b = out.line;
+        int slash = indexOf(b, '/', 0, len);
+        int stateEnd = slash < 0 ? len : slash;
+        if (matches(b, 0, stateEnd, ON)) {
+            out.switchState = MegaDEvent.SWITCH_ON;
+        } else if (matches(b, 0, stateEnd, OFF)) {
+            out.switchState = MegaDEvent.SWITCH_OFF;
+        } else {
+            setValue(out, 0, len);
+        }
+        if (slash >= 0 && out.switchState != MegaDEvent.SWITCH_NONE && isNumber(b, slash + 1, len)) {
+            out.hasCounter = true;
+            out.counter = parseLong(b, slash + 1, len);
+        }
+        out.textStart = 0;
+        out.textEnd = len;
+        return end - bulk.textStart + 1;
+    }
+
+    private static int parameter(MegaDEvent event, int nameStart, int nameEnd, int valueStart, int valueEnd,
+            int queryEnd) {
+        byte[] b = event.line;
+        if (matches(b, nameStart, nameEnd, PT)) {
+            if (isNumber(b, valueStart, valueEnd)) {
+                event.port = (int) parseLong(b, valueStart, valueEnd);
+            }
+            event.parametersStart = Math.min(valueEnd + 1, queryEnd);
+            event.parametersEnd = queryEnd;
+        } else if (matches(b, nameStart, nameEnd, M)) {
+            if (isNumber(b, valueStart, valueEnd)) {
+                event.mode = (int) parseLong(b, valueStart, valueEnd);
+            }
+        } else if (matches(b, nameStart, nameEnd, CLICK)) {
+            if (isNumber(b, valueStart, valueEnd)) {
+                event.clicks = (int) parseLong(b, valueStart, valueEnd);
+            }
+            return SEEN_CLICK;
+        } else if (matches(b, nameStart, nameEnd, CNT)) {
+            if (isNumber(b, valueStart, valueEnd)) {
+                event.hasCounter = true;
+                event.counter = parseLong(b, valueStart, valueEnd);
+            }
+        } else if (matches(b, nameStart, nameEnd, V)) {
+            setValue(event, valueStart, valueEnd);
+            return SEEN_VALUE;
+        } else if (matches(b, nameStart, nameEnd, WG)) {
+            setText(event, valueStart, valueEnd);
+            return SEEN_WIEGAND;
+        } else if (matches(b, nameStart, nameEnd, IB)) {
+            setText(event, valueStart, valueEnd);
+            return SEEN_IBUTTON;
+        } else if (startsWith(b, nameStart, nameEnd, EXT)) {
+            return SEEN_EXTENDER;
+        } else if (matches(b, nameStart, nameEnd, ST)) {
+            setValue(event, valueStart, valueEnd);
+            return SEEN_STATUS;
+        } else if (matches(b, nameStart, nameEnd, SMS_PHONE)) {
+            setText(event, valueStart, valueEnd);
+            return SEEN_SMS;
+        } else if (matches(b, nameStart, nameEnd, SMS_TEXT)) {
+            event.secondTextStart = valueStart;
+            event.secondTextEnd = valueEnd;
+        } else if (matches(b, nameStart, nameEnd, ALL)) {
+            setText(event, valueStart, valueEnd);
+            return SEEN_ALL;
+        }
+        return 0;
+    }
+
+    private static MegaDEventType resolveType(MegaDEvent event, int seen) {
+        if (event.mode == 1) {
+            event.switchState = MegaDEvent.SWITCH_OFF;
+            return MegaDEventType.RELEASE;
+        } else if ((seen & SEEN_CLICK) != 0) {
+            return MegaDEventType.CLICK;
+        } else if (event.mode == 2) {
+            return MegaDEventType.LONG_PRESS;
+        } else if ((seen & SEEN_ALL) != 0) {
+            return MegaDEventType.BULK;
+        } else if ((seen & SEEN_VALUE) != 0) {
+            event.switchState = event.hasValue && event.value != 0 ? MegaDEvent.SWITCH_ON : MegaDEvent.SWITCH_OFF;
+            return MegaDEventType.VALUE;
+        } else if ((seen & SEEN_STATUS) != 0) {
+            return MegaDEventType.STATUS;
+        } else if ((seen & SEEN_SMS) != 0) {
+            return MegaDEventType.SMS;
+        } else if (event.port == MegaDEvent.NO_PORT) {
+            return MegaDEventType.UNKNOWN;
+        }
+
+        event.switchState = MegaDEvent.SWITCH_ON;
+        if ((seen & SEEN_WIEGAND) != 0) {
+            return MegaDEventType.WIEGAND;
+        } else if ((seen & SEEN_IBUTTON) != 0) {
+            return MegaDEventType.IBUTTON;
+        } else if ((seen & SEEN_EXTENDER) != 0) {
+            return MegaDEventType.EXTENDER;
+        } else if (event.hasCounter) {
+            return MegaDEventType.COUNTER;
+        }
+        return MegaDEventType.PRESS;
+    }
+
+    private static void setValue(MegaDEvent event, int start, int end) {
+        event.valueStart = start;
+        event.valueEnd = end;
+        if (isNumber(event.line, start, end)) {
+            event.hasValue = true;
+            event.value = parseLong(event.line, start, end);
+        }
+    }
+
+    private static void setText(MegaDEvent event, int start, int end) {
+        event.textStart = start;
+        event.textEnd = end;
+    }
+
+    private static int indexOf(byte[] b, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] b, int start, int end, byte[] name) {
+        return end - start == name.length && startsWith(b, start, end, name);
+    }
+
+    private static boolean startsWith(byte[] b, int start, int end, byte[] name) {
+        if (end - start < name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (b[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNumber(byte[] b, int start, int end) {
+        if (start < end && b[start] == '-') {
+            start++;
+        }
+        if (start >= end || end - start > 18) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseLong(byte[] b, int start, int end) {
+        boolean negative = b[start] == '-';
+        long result = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            result = result * 10 + (b[i] - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    private static byte[] bytes(String name) {
+        return name.getBytes(StandardCharsets.US_ASCII);
+    }
+}
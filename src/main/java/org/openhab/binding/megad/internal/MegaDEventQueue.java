@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link MegaDEventQueue} is a bounded ring buffer handing parsed events from the network threads to a
+ * dispatcher thread.
+ *
+ * Every slot holds a preallocated {@link MegaDEvent} and a sequence number telling whether it is free or
+ * published, so producers and the consumer never lock. The consumer reads an event in place and frees the slot
+ * afterwards.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public final class MegaDEventQueue {
+
+    /**
+     * Receives the events taken from the queue. The event is only valid during the call.
+     */
+    public interface Consumer {
+        void eventReceived(String hostAddress, int controllerId, MegaDEvent event);
+    }
+
+    private static final long FULL_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final MegaDOverflowPolicy policy;
+    private final int mask;
+    private final MegaDEvent[] events;
+    private final String[] hostAddresses;
+    private final int[] controllerIds;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile @Nullable Thread waitingConsumer;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    public MegaDEventQueue(int capacity, MegaDOverflowPolicy policy) {
+        int size = Integer.highestOneBit(Math.max(2, Math.min(capacity, 1 << 20)) * 2 - 1);
+        this.policy = policy;
+        this.mask = size - 1;
+        this.events = new MegaDEvent[size];
+        this.hostAddresses = new String[size];
+        this.controllerIds = new int[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            events[i] = new MegaDEvent();
+            hostAddresses[i] = "";
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Copies the event into the queue, applying the overflow policy when it is full.
+     *
+     * @return false if the event was dropped
+     */
+    public boolean offer(String hostAddress, int controllerId, MegaDEvent event) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    events[index].copyFrom(event);
+                    hostAddresses[index] = hostAddress;
+                    controllerIds[index] = controllerId;
+                    sequences.set(index, position + 1);
+                    Thread consumer = waitingConsumer;
+                    if (consumer != null) {
+                        LockSupport.unpark(consumer);
+                    }
+                    return true;
+                }
+            } else if (difference < 0 && !makeRoom(event)) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            position = tail.get();
+        }
+    }
+
+    private boolean makeRoom(MegaDEvent event) {
+        if (policy == MegaDOverflowPolicy.DROP_OLDEST) {
+            if (poll(null)) {
+                dropped.incrementAndGet();
+            }
+            return true;
+        } else if (policy == MegaDOverflowPolicy.DROP_STATE_REPORTS && event.getType().isStateReport()) {
+            return false;
+        }
+        LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Takes the oldest event from the queue.
+     *
+     * @param consumer receives the event, or null to discard it
+     * @return false if the queue is empty
+     */
+    public boolean poll(@Nullable Consumer consumer) {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    try {
+                        if (consumer != null) {
+                            consumer.eventReceived(hostAddresses[index], controllerIds[index], events[index]);
+                        }
+                    } finally {
+                        sequences.set(index, position + mask + 1);
+                    }
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+            position = head.get();
+        }
+    }
+
+    /**
+     * Parks the calling consumer until an event is offered or the timeout elapses.
+     */
+    public void awaitEvents(long timeout, TimeUnit unit) {
+        waitingConsumer = Thread.currentThread();
+        try {
+            if (size() == 0) {
+                LockSupport.parkNanos(this, unit.toNanos(timeout));
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    /**
+     * @return number of queued events
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return number of events dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link MegaDEventType} lists the kinds of callbacks megad sends to the bridge.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public enum MegaDEventType {
+    /** pt=0 - button pressed */
+    PRESS,
+    /** pt=0&m=1 - button released */
+    RELEASE,
+    /** pt=0&click=1 - click mode */
+    CLICK,
+    /** pt=0&m=2 - long press */
+    LONG_PRESS,
+    /** pt=0&cnt=100 - button pressed with counter */
+    COUNTER,
+    /** pt=7&v=1 - output or ADC value */
+    VALUE,
+    /** pt=30&wg=ec532f - wiegand code */
+    WIEGAND,
+    /** pt=31&ib=... - iButton key */
+    IBUTTON,
+    /** pt=22&ext0=1 - I2C port extender */
+    EXTENDER,
+    /** sms_phone=...&sms_text=... - incoming SMS */
+    SMS,
+    /** st=1 - controller started */
+    STATUS,
+    /** all=OFF;ON;... - status of all ports */
+    BULK,
+    /** request that does not match any known callback */
+    UNKNOWN;
+
+    /**
+     * @return true for reports of a current state, which a later report or poll repeats, as opposed to edges like
+     *         a press that are lost when dropped
+     */
+    public boolean isStateReport() {
+        return this == VALUE || this == BULK || this == UNKNOWN;
+    }
+}
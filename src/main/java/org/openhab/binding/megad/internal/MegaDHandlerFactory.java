@@ -41,6 +41,11 @@ public class MegaDHandlerFactory extends BaseThingHandlerFactory {
 
     private Logger logger = LoggerFactory.getLogger(MegaDHandlerFactory.class);
 
+    /**
+     * Polls of all things of the binding, so idle things cost no wakeups.
+     */
+    private final MegaDTimingWheel pollWheel = new MegaDTimingWheel(100, "OH-binding-megad-poll");
+
     @Override
     public boolean supportsThingType(ThingTypeUID thingTypeUID) {
         return BINDING_ID.equals(thingTypeUID.getBindingId());
@@ -51,12 +56,12 @@ public class MegaDHandlerFactory extends BaseThingHandlerFactory {
         ThingTypeUID thingTypeUID = thing.getThingTypeUID();
 
         if (thingTypeUID.equals(MegaDBindingConstants.THING_TYPE_UID_BRIDGE)) {
-            MegaDBridgeHandler handler = new MegaDBridgeHandler((Bridge) thing);
+            MegaDBridgeHandler handler = new MegaDBridgeHandler((Bridge) thing, pollWheel);
             return handler;
         }
 
         if (supportsThingType(thingTypeUID)) {
-            return new MegaDHandler(thing);
+            return new MegaDHandler(thing, pollWheel);
         }
 
         return null;
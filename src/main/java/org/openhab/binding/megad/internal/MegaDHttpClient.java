@@ -0,0 +1,583 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link MegaDHttpClient} sends requests to the web server of one controller. The server only knows simple GET
+ * requests, so the client writes HTTP/1.0 requests straight to a socket instead of going through
+ * {@link java.net.HttpURLConnection}.
+ *
+ * The request line is assembled in a buffer that starts with the "GET /password/?" prefix of the controller, and
+ * the response is read into a buffer kept for the next request. The resolved address is cached until a connection
+ * fails. Requests to one controller are sent one after the other, as the controller serves one at a time anyway.
+ *
+ * Asynchronous requests are sent by a thread of the client, which ends when the controller has been idle for a
+ * minute. At most {@link #MAX_PENDING} of them may wait for a controller; further ones fail at once, so an
+ * unreachable controller does not pile up commands.
+ *
+ * A controller failing several requests in a row is given up by its {@link MegaDCircuitBreaker}: further requests
+ * fail at once, and only a probe now and then is sent until it answers again.
+ *
+ * One client is shared by all things of a controller, see {@link #acquire(String, String)}. It is shut down when
+ * the last of them releases it.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public class MegaDHttpClient {
+
+    public static final int TIMEOUT = 1500;
+    public static final int MAX_PENDING = 32;
+
+    private static final int DEFAULT_PORT = 80;
+    private static final int MAX_RESPONSE_LENGTH = 64 * 1024;
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final Map<String, MegaDHttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private final String host;
+    private final int port;
+    private final byte[] prefix;
+    private final byte[] suffix;
+    private final byte[] keepAliveSuffix;
+    private final Semaphore pending = new Semaphore(MAX_PENDING);
+    private final ScheduledThreadPoolExecutor executor;
+    private final MegaDCommandBatcher batcher;
+    private final MegaDCircuitBreaker breaker;
+    private final String key;
+    // guarded by the entry of the client in CLIENTS
+    private int references;
+
+    private byte[] request = new byte[256];
+    private byte[] response = new byte[1024];
+    private int responseLength;
+    private int bodyStart;
+    private int status;
+    private boolean keepAlive;
+    private volatile boolean reuseConnection;
+    private @Nullable InetSocketAddress address;
+    private @Nullable Socket socket;
+
+    /**
+     * @param hostname host name or address of the controller, optionally followed by ":port"
+     * @param password password of the controller
+     */
+    public MegaDHttpClient(String hostname, String password) {
+        this(hostname, password, "");
+    }
+
+    private MegaDHttpClient(String hostname, String password, String key) {
+        this.key = key;
+        int colon = hostname.lastIndexOf(':');
+        if (colon > 0 && hostname.indexOf(':') == colon && colon < hostname.length() - 1) {
+            this.host = hostname.substring(0, colon);
+            this.port = Integer.parseInt(hostname.substring(colon + 1));
+        } else {
+            this.host = hostname;
+            this.port = DEFAULT_PORT;
+        }
+        this.prefix = ("GET /" + password + "/?").getBytes(StandardCharsets.US_ASCII);
+        this.suffix = (" HTTP/1.0\r\nHost: " + hostname + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        this.keepAliveSuffix = (" HTTP/1.0\r\nHost: " + hostname + "\r\nConnection: keep-alive\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "OH-binding-megad-" + hostname);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        this.executor.allowCoreThreadTimeOut(true);
+        this.executor.setRemoveOnCancelPolicy(true);
+        this.batcher = new MegaDCommandBatcher(this);
+        this.breaker = new MegaDCircuitBreaker(hostname);
+    }
+
+    /**
+     * Takes a reference to the client shared by all things of the controller, to be given back with
+     * {@link #release()}.
+     */
+    public static MegaDHttpClient acquire(String hostname, String password) {
+        return CLIENTS.compute(hostname + "/" + password, (key, client) -> {
+            MegaDHttpClient shared = client != null ? client : new MegaDHttpClient(hostname, password, key);
+            shared.references++;
+            return shared;
+        });
+    }
+
+    /**
+     * Takes another reference to a client acquired before.
+     *
+     * @throws IllegalStateException if the client was released already
+     */
+    public MegaDHttpClient retain() {
+        CLIENTS.compute(key, (k, client) -> {
+            if (client != this) {
+                throw new IllegalStateException("Client of " + getHostname() + " was released");
+            }
+            references++;
+            return client;
+        });
+        return this;
+    }
+
+    /**
+     * Gives back a reference. The last one shuts the client down, as does releasing a client created with the
+     * constructor.
+     */
+    public void release() {
+        if (CLIENTS.computeIfPresent(key, (k, client) -> client == this && --references == 0 ? null : client) == null) {
+            executor.shutdown();
+            close();
+        }
+    }
+
+    public String getHostname() {
+        return port == DEFAULT_PORT ? host : host + ":" + port;
+    }
+
+    /**
+     * Keeps the connection open between requests if the controller answers with a content length and allows it.
+     * Off by default, as most firmware versions close the connection after every response.
+     */
+    public void setReuseConnection(boolean reuseConnection) {
+        this.reuseConnection = reuseConnection;
+        if (!reuseConnection) {
+            close();
+        }
+    }
+
+    /**
+     * Sets how port commands passed to {@link #commandAsync(String)} are joined into one request.
+     *
+     * @param windowMillis time commands are collected, 0 to send every command on its own
+     * @param maxLength maximum length of the query of a joined request
+     * @param scheduler times the window, apart from the thread sending the requests
+     */
+    public void setBatching(long windowMillis, int maxLength, ScheduledExecutorService scheduler) {
+        batcher.configure(windowMillis, maxLength, scheduler);
+    }
+
+    /**
+     * @return the circuit breaker telling whether the controller answers
+     */
+    public MegaDCircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Sends a port command, joined with the commands of other ports sent within the batch window.
+     *
+     * @param command a port command like "7:1"
+     * @return the status code of the request carrying the command
+     */
+    public CompletableFuture<Integer> commandAsync(String command) {
+        return batcher.add(command);
+    }
+
+    /**
+     * Sends a request and ignores the body of the response.
+     *
+     * @param query query part of the request, e.g. "cmd=7:1"
+     * @return status code of the response
+     * @throws IOException if the controller cannot be reached
+     */
+    public synchronized int send(CharSequence query) throws IOException {
+        return execute(query);
+    }
+
+    /**
+     * Sends a request and returns the body of the response, lines joined and trimmed.
+     *
+     * @param query query part of the request, e.g. "pt=7&cmd=get"
+     * @throws IOException if the controller cannot be reached or answers with an error
+     */
+    public synchronized String get(CharSequence query) throws IOException {
+        int code = execute(query);
+        if (code >= 400) {
+            throw new IOException("Server returned HTTP response code: " + code + " for query: " + query);
+        }
+        int length = 0;
+        for (int i = bodyStart; i < responseLength; i++) {
+            byte b = response[i];
+            if (b != '\r' && b != '\n') {
+                response[bodyStart + length++] = b;
+            }
+        }
+        return new String(response, bodyStart, length, StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Sends a request without waiting for the response.
+     *
+     * @return the status code of the response, or an {@link IOException} if the controller cannot be reached or too
+     *         many requests are pending. Cancelling it before the request is sent skips the request.
+     */
+    public CompletableFuture<Integer> sendAsync(String query) {
+        return submit(() -> send(query));
+    }
+
+    /**
+     * Sends a request without waiting for the response.
+     *
+     * @return the body of the response as returned by {@link #get(CharSequence)}
+     */
+    public CompletableFuture<String> getAsync(String query) {
+        return submit(() -> get(query));
+    }
+
+    /**
+     * @return number of asynchronous requests queued or being sent
+     */
+    public int getPending() {
+        return MAX_PENDING - pending.availablePermits();
+    }
+
+    private <T> CompletableFuture<T> submit(Request<T> request) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (!breaker.isProbeDue()) {
+            // do not hold a queue slot for a request that fails anyway
+            future.completeExceptionally(new MegaDCircuitBreaker.MegaDUnreachableException(getHostname()));
+            return future;
+        }
+        if (!pending.tryAcquire()) {
+            future.completeExceptionally(new IOException("Too many requests pending for " + getHostname()));
+            return future;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!future.isDone()) {
+                        // not cancelled while waiting for its turn
+                        future.complete(request.execute());
+                    }
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    pending.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Closes a kept connection.
+     */
+    public synchronized void close() {
+        Socket current = socket;
+        socket = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // closed anyway
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Request<T> {
+        T execute() throws IOException;
+    }
+
+    /**
+     * Writing the request failed, so the controller cannot have acted on it.
+     */
+    private static class NotSentException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotSentException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    private int execute(CharSequence query) throws IOException {
+        breaker.acquire();
+        int code;
+        try {
+            code = exchange(query);
+        } catch (IOException e) {
+            breaker.failed();
+            throw e;
+        }
+        breaker.succeeded();
+        return code;
+    }
+
+    private int exchange(CharSequence query) throws IOException {
+        int length = buildRequest(query);
+        Socket current = socket;
+        if (current != null && isClosedByPeer(current)) {
+            close();
+            current = null;
+        }
+        if (current != null) {
+            try {
+                return exchange(current, length);
+            } catch (NotSentException e) {
+                // the controller closed the kept connection in the meantime, try once with a new one; a request
+                // written already is never repeated, as commands like toggles must not run twice
+                close();
+            }
+        }
+        return exchange(connect(), length);
+    }
+
+    /**
+     * @return true if the controller closed the kept connection or sent something unasked
+     */
+    private boolean isClosedByPeer(Socket current) {
+        try {
+            InputStream in = current.getInputStream();
+            if (in.available() > 0) {
+                return true;
+            }
+            current.setSoTimeout(1);
+            try {
+                // the end of the stream, or data nobody asked for
+                in.read();
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } finally {
+                current.setSoTimeout(TIMEOUT);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private Socket connect() throws IOException {
+        InetSocketAddress resolved = address;
+        if (resolved == null || resolved.isUnresolved()) {
+            resolved = new InetSocketAddress(host, port);
+            address = resolved;
+        }
+        Socket newSocket = new Socket();
+        try {
+            newSocket.setTcpNoDelay(true);
+            newSocket.setSoTimeout(TIMEOUT);
+            newSocket.connect(resolved, TIMEOUT);
+        } catch (IOException e) {
+            newSocket.close();
+            // the address of the controller may have changed
+            address = null;
+            throw e;
+        }
+        return newSocket;
+    }
+
+    private int exchange(Socket current, int requestLength) throws IOException {
+        boolean keep = false;
+        try {
+            try {
+                OutputStream out = current.getOutputStream();
+                out.write(request, 0, requestLength);
+                out.flush();
+            } catch (IOException e) {
+                throw new NotSentException(e);
+            }
+            readResponse(current.getInputStream());
+            keep = reuseConnection && keepAlive;
+            return status;
+        } finally {
+            if (keep) {
+                socket = current;
+            } else {
+                socket = null;
+                current.close();
+            }
+        }
+    }
+
+    private int buildRequest(CharSequence query) {
+        int length = prefix.length + query.length() * 9 + keepAliveSuffix.length;
+        if (request.length < length) {
+            request = new byte[Math.max(length, request.length * 2)];
+        }
+        System.arraycopy(prefix, 0, request, 0, prefix.length);
+        int pos = prefix.length;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c > ' ' && c < 0x7F) {
+                request[pos++] = (byte) c;
+            } else {
+                for (byte b : String.valueOf(c).getBytes(StandardCharsets.UTF_8)) {
+                    request[pos++] = '%';
+                    request[pos++] = HEX[(b >> 4) & 0xF];
+                    request[pos++] = HEX[b & 0xF];
+                }
+            }
+        }
+        byte[] end = reuseConnection ? keepAliveSuffix : suffix;
+        System.arraycopy(end, 0, request, pos, end.length);
+        return pos + end.length;
+    }
+
+    /**
+     * Reads the response into the response buffer. Without a content length the body ends with the connection.
+     */
+    private void readResponse(InputStream in) throws IOException {
+        responseLength = 0;
+        bodyStart = -1;
+        long contentLength = -1;
+        while (true) {
+            if (bodyStart >= 0 && contentLength >= 0 && responseLength - bodyStart >= contentLength) {
+                responseLength = bodyStart + (int) contentLength;
+                return;
+            }
+            if (responseLength == response.length) {
+                if (response.length >= MAX_RESPONSE_LENGTH) {
+                    throw new IOException("Response of " + host + " is too long");
+                }
+                byte[] larger = new byte[response.length * 2];
+                System.arraycopy(response, 0, larger, 0, responseLength);
+                response = larger;
+            }
+            int read = in.read(response, responseLength, response.length - responseLength);
+            if (read < 0) {
+                if (responseLength == 0) {
+                    throw new IOException("Connection closed by " + host);
+                }
+                if (bodyStart < 0) {
+                    // headers without an empty line, or an old firmware sending the body only
+                    parseHead();
+                }
+                keepAlive = false;
+                return;
+            }
+            responseLength += read;
+            if (bodyStart < 0 && findBodyStart()) {
+                contentLength = parseHead();
+                if (contentLength < 0) {
+                    keepAlive = false;
+                }
+            }
+        }
+    }
+
+    private boolean findBodyStart() {
+        for (int i = 3; i < responseLength; i++) {
+            if (response[i] == '\n' && response[i - 1] == '\r' && response[i - 2] == '\n' && response[i - 3] == '\r') {
+                bodyStart = i + 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the content length, -1 if not given
+     */
+    private long parseHead() {
+        if (!startsWith(0, "HTTP/")) {
+            status = 200;
+            bodyStart = 0;
+            return -1;
+        }
+        int end = bodyStart >= 0 ? bodyStart : responseLength;
+        if (bodyStart < 0) {
+            bodyStart = responseLength;
+        }
+        boolean http11 = startsWith(0, "HTTP/1.1");
+        int space = indexOf(' ', 0, end);
+        status = space > 0 ? Math.max(0, parseNumber(space + 1, end)) : 0;
+        long contentLength = -1;
+        boolean persistent = http11;
+        int line = indexOf('\n', 0, end) + 1;
+        while (line > 0 && line < end) {
+            if (startsWithIgnoreCase(line, "content-length:")) {
+                contentLength = parseNumber(line + 15, end);
+            } else if (startsWithIgnoreCase(line, "connection:")) {
+                int value = skipSpaces(line + 11, end);
+                persistent = startsWithIgnoreCase(value, "keep-alive");
+            }
+            line = indexOf('\n', line, end) + 1;
+        }
+        keepAlive = persistent && status > 0;
+        return contentLength;
+    }
+
+    private boolean startsWith(int offset, String text) {
+        if (offset + text.length() > responseLength) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (response[offset + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWithIgnoreCase(int offset, String text) {
+        if (offset + text.length() > responseLength) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.toLowerCase((char) response[offset + i]) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (response[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int skipSpaces(int from, int end) {
+        int i = from;
+        while (i < end && response[i] == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private int parseNumber(int from, int end) {
+        int i = skipSpaces(from, end);
+        int value = 0;
+        int digits = 0;
+        while (i < end && response[i] >= '0' && response[i] <= '9' && digits < 9) {
+            value = value * 10 + response[i++] - '0';
+            digits++;
+        }
+        return digits > 0 ? value : -1;
+    }
+}
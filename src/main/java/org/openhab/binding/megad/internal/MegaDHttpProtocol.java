@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link MegaDHttpProtocol} holds the pre-encoded responses of the bridge server and the few request
+ * checks needed to support persistent connections.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public final class MegaDHttpProtocol {
+
+    public static final int CONNECTION_DEFAULT = 0;
+    public static final int CONNECTION_CLOSE = 1;
+    public static final int CONNECTION_KEEP_ALIVE = 2;
+
+    private static final byte[] RESPONSE_CLOSE = response("close");
+    private static final byte[] RESPONSE_KEEP_ALIVE = response("keep-alive");
+    private static final ByteBuffer RESPONSE_CLOSE_BUFFER = ByteBuffer.wrap(RESPONSE_CLOSE).asReadOnlyBuffer();
+    private static final ByteBuffer RESPONSE_KEEP_ALIVE_BUFFER = ByteBuffer.wrap(RESPONSE_KEEP_ALIVE)
+            .asReadOnlyBuffer();
+
+    private static final byte[] CONNECTION = "connection:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "close".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEEP_ALIVE = "keep-alive".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GET = "GET ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_10 = "http/1.0".getBytes(StandardCharsets.US_ASCII);
+
+    private MegaDHttpProtocol() {
+    }
+
+    /**
+     * @return a private read-only view of the cached response, to be rewound before every write
+     */
+    public static ByteBuffer responseBuffer(boolean keepAlive) {
+        return (keepAlive ? RESPONSE_KEEP_ALIVE_BUFFER : RESPONSE_CLOSE_BUFFER).duplicate();
+    }
+
+    public static byte[] response(boolean keepAlive) {
+        return keepAlive ? RESPONSE_KEEP_ALIVE : RESPONSE_CLOSE;
+    }
+
+    /**
+     * Checks the first bytes of a request as soon as they arrive, so other clients can be rejected early.
+     *
+     * @return false if the bytes cannot start a GET request or the empty lines between requests
+     */
+    public static boolean isRequestStart(byte[] b, int length) {
+        if (length > 0 && (b[0] == '\r' || b[0] == '\n')) {
+            return true;
+        }
+        for (int i = 0; i < Math.min(length, GET.length); i++) {
+            if (b[i] != GET[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the request line asks for HTTP/1.0, which closes connections unless told otherwise
+     */
+    public static boolean isHttp10(byte[] line, int offset, int length) {
+        return length >= HTTP_10.length && regionMatches(line, offset + length - HTTP_10.length, HTTP_10);
+    }
+
+    /**
+     * @return {@link #CONNECTION_CLOSE} or {@link #CONNECTION_KEEP_ALIVE} for a matching "Connection" header,
+     *         otherwise {@link #CONNECTION_DEFAULT}
+     */
+    public static int connectionHeader(byte[] line, int offset, int length) {
+        if (length < CONNECTION.length || !regionMatches(line, offset, CONNECTION)) {
+            return CONNECTION_DEFAULT;
+        }
+        int end = offset + length;
+        for (int i = offset + CONNECTION.length; i < end; i++) {
+            if (end - i >= CLOSE.length && regionMatches(line, i, CLOSE)) {
+                return CONNECTION_CLOSE;
+            }
+            if (end - i >= KEEP_ALIVE.length && regionMatches(line, i, KEEP_ALIVE)) {
+                return CONNECTION_KEEP_ALIVE;
+            }
+        }
+        return CONNECTION_DEFAULT;
+    }
+
+    /**
+     * Decides whether a connection stays open after the response.
+     */
+    public static boolean isPersistent(boolean http10, int connectionHeader) {
+        return connectionHeader == CONNECTION_KEEP_ALIVE || (!http10 && connectionHeader != CONNECTION_CLOSE);
+    }
+
+    private static boolean regionMatches(byte[] b, int offset, byte[] lowerCase) {
+        for (int i = 0; i < lowerCase.length; i++) {
+            if (Character.toLowerCase((char) b[offset + i]) != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] response(String connection) {
+        return ("HTTP/1.1 200 OK\r\n" + "Content-Type: text/html\r\n" + "Content-Length: 0\r\n" + "Connection: "
+                + connection + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
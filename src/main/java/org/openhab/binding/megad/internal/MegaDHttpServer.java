@@ -0,0 +1,461 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.megad.MegaDConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link MegaDHttpServer} is a non-blocking server for incoming megad connections.
+ *
+ * One selector thread accepts, reads and answers all connections. Every connection keeps its own
+ * buffers, so a slow controller only delays itself. With keep-alive enabled a connection may carry any
+ * number of requests and is closed after it stayed idle for the configured timeout.
+ *
+ * A request must arrive completely within the read timeout, its lines must fit the maximum line length and it
+ * must start like a GET request, otherwise the connection is closed.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public class MegaDHttpServer implements MegaDServer {
+
+    private static final long SWEEP_INTERVAL = 250;
+    // pause after a failed accept, e.g. while the process is out of file descriptors
+    private static final long ACCEPT_BACKOFF = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(MegaDHttpServer.class);
+
+    private final int port;
+    private final boolean reusePort;
+    private final MegaDCallbackListener listener;
+    private final MegaDServerStats stats;
+    private final boolean keepAlive;
+    private final long keepAliveTimeoutNanos;
+    private final long readTimeoutNanos;
+    private final int maxLineLength;
+    private final int maxConnections;
+    private @Nullable Selector selector;
+    private @Nullable ServerSocketChannel serverChannel;
+    private volatile boolean running;
+    private long lastSweep;
+    private long acceptResumeAt;
+
+    /**
+     * @param port port to listen on
+     * @param reusePort share the port with other listeners
+     * @param stats connection counters shared by all listeners of the bridge
+     */
+    public MegaDHttpServer(MegaDConfiguration configuration, int port, boolean reusePort, MegaDServerStats stats,
+            MegaDCallbackListener listener) {
+        this.port = port;
+        this.reusePort = reusePort;
+        this.stats = stats;
+        this.listener = listener;
+        this.keepAlive = configuration.keepAlive;
+        this.keepAliveTimeoutNanos = TimeUnit.SECONDS.toNanos(configuration.keepAliveTimeout);
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(configuration.readTimeout);
+        this.maxLineLength = Math.max(16, Math.min(configuration.maxLineLength, MegaDEvent.MAX_LINE_LENGTH));
+        this.maxConnections = configuration.maxConnections;
+    }
+
+    @Override
+    public void open() throws IOException {
+        Selector selector = Selector.open();
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort) {
+                MegaDSocketOptions.enableReusePort(serverChannel);
+            }
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        this.selector = selector;
+        this.serverChannel = serverChannel;
+        running = true;
+    }
+
+    @Override
+    public int getLocalPort() {
+        ServerSocketChannel serverChannel = this.serverChannel;
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : -1;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        Selector selector = this.selector;
+        if (selector == null) {
+            return;
+        }
+        try {
+            while (running) {
+                selector.select(SWEEP_INTERVAL);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        try {
+                            accept(selector);
+                        } catch (IOException e) {
+                            // the listener stays open, it only stops accepting for a while
+                            logger.warn("Cannot accept connections, retrying in {} ms: {}", ACCEPT_BACKOFF,
+                                    e.getMessage());
+                            key.interestOps(0);
+                            acceptResumeAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACCEPT_BACKOFF);
+                        }
+                        continue;
+                    }
+                    try {
+                        if (key.isReadable()) {
+                            read(key);
+                        } else if (key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        logger.debug("Connection error: {}", e.getMessage());
+                        closeConnection(key);
+                    }
+                }
+                closeExpiredConnections(selector);
+                resumeAccept();
+            }
+        } catch (IOException e) {
+            logger.error("ERROR in bridge. Incoming server has error: {}", e.getMessage());
+        } finally {
+            running = false;
+            closeAll(selector);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        Selector selector = this.selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void accept(Selector selector) throws IOException {
+        ServerSocketChannel serverChannel = this.serverChannel;
+        if (serverChannel == null) {
+            return;
+        }
+        SocketChannel channel;
+        while ((channel = acceptConnection(serverChannel)) != null) {
+            if (!stats.tryOpen(maxConnections)) {
+                logger.debug("Too many open connections, rejecting");
+                channel.close();
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+                String hostAddress = remote.getAddress().getHostAddress();
+                long accepted = System.nanoTime();
+                channel.register(selector, SelectionKey.OP_READ, new MegaDConnection(channel, hostAddress,
+                        listener.resolveController(hostAddress), maxLineLength, accepted, accepted + readTimeoutNanos));
+            } catch (IOException e) {
+                logger.debug("Cannot accept connection: {}", e.getMessage());
+                stats.closed();
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * @return the next pending connection, null if there is none
+     */
+    @Nullable
+    SocketChannel acceptConnection(ServerSocketChannel serverChannel) throws IOException {
+        return serverChannel.accept();
+    }
+
+    private void resumeAccept() {
+        ServerSocketChannel serverChannel = this.serverChannel;
+        Selector selector = this.selector;
+        if (acceptResumeAt == 0 || System.nanoTime() - acceptResumeAt < 0 || serverChannel == null
+                || selector == null) {
+            return;
+        }
+        acceptResumeAt = 0;
+        SelectionKey key = serverChannel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        MegaDConnection connection = (MegaDConnection) key.attachment();
+        ByteBuffer buffer = connection.readBuffer;
+        int count = connection.channel.read(buffer);
+        if (!connection.requestStarted && buffer.position() > 0) {
+            // the read timeout runs from the first byte of a request, an idle connection waits longer
+            connection.requestStarted = true;
+            long now = System.nanoTime();
+            connection.deadline = now + readTimeoutNanos;
+            if (connection.requestStart == 0) {
+                connection.requestStart = now;
+            }
+        }
+        if (!connection.inHeaders && !MegaDHttpProtocol.isRequestStart(buffer.array(), buffer.position())) {
+            logger.debug("Request from {} is no GET request, closing", connection.hostAddress);
+            stats.invalid();
+            closeConnection(key);
+            return;
+        }
+        if (!processInput(key, connection)) {
+            return;
+        }
+        if (count < 0) {
+            if (buffer.position() > 0 && !connection.inHeaders) {
+                // request line without terminator at the end of the stream
+                dispatch(connection, buffer.array(), connection.lineLength(buffer.position()),
+                        connection.takeRequestStart());
+            }
+            closeConnection(key);
+        } else if (!buffer.hasRemaining()) {
+            logger.debug("Request line from {} is too long, closing", connection.hostAddress);
+            stats.oversized();
+            closeConnection(key);
+        }
+    }
+
+    /**
+     * Handles all complete lines in the read buffer.
+     *
+     * @return false if the connection was closed or still waits for its response to be written
+     */
+    private boolean processInput(SelectionKey key, MegaDConnection connection) throws IOException {
+        byte[] bytes = connection.readBuffer.array();
+        int lineEnd;
+        while ((lineEnd = connection.findLineEnd()) >= 0) {
+            int length = connection.lineLength(lineEnd);
+            if (!connection.inHeaders) {
+                if (length > 0 && !keepAlive) {
+                    // the connection is closed anyway, so answer right away and skip the headers
+                    long received = connection.takeRequestStart();
+                    connection.persistent = false;
+                    respond(key, connection);
+                    dispatch(connection, bytes, length, received);
+                    return false;
+                } else if (length > 0) {
+                    connection.inHeaders = true;
+                    connection.http10 = MegaDHttpProtocol.isHttp10(bytes, 0, length);
+                    connection.connectionHeader = MegaDHttpProtocol.CONNECTION_DEFAULT;
+                    dispatch(connection, bytes, length, connection.takeRequestStart());
+                }
+                connection.consume(lineEnd + 1);
+            } else if (length == 0) {
+                connection.inHeaders = false;
+                connection.consume(lineEnd + 1);
+                connection.persistent = MegaDHttpProtocol.isPersistent(connection.http10,
+                        connection.connectionHeader);
+                return respond(key, connection);
+            } else {
+                if (connection.connectionHeader == MegaDHttpProtocol.CONNECTION_DEFAULT) {
+                    connection.connectionHeader = MegaDHttpProtocol.connectionHeader(bytes, 0, length);
+                }
+                connection.consume(lineEnd + 1);
+            }
+        }
+        return true;
+    }
+
+    private boolean respond(SelectionKey key, MegaDConnection connection) throws IOException {
+        ByteBuffer response = connection.persistent ? connection.keepAliveResponse : connection.closeResponse;
+        response.rewind();
+        connection.requestStarted = false;
+        connection.deadline = System.nanoTime() + readTimeoutNanos;
+        connection.response = response;
+        key.interestOps(SelectionKey.OP_WRITE);
+        return write(key);
+    }
+
+    /**
+     * Writes the pending response.
+     *
+     * @return true if the connection stays open and reads the next request
+     */
+    private boolean write(SelectionKey key) throws IOException {
+        MegaDConnection connection = (MegaDConnection) key.attachment();
+        ByteBuffer response = connection.response;
+        if (response == null) {
+            return true;
+        }
+        connection.channel.write(response);
+        if (response.hasRemaining()) {
+            return false;
+        }
+        connection.response = null;
+        if (!connection.persistent) {
+            closeConnection(key);
+            return false;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        connection.deadline = System.nanoTime() + keepAliveTimeoutNanos;
+        // a pipelined request may already wait in the buffer
+        return processInput(key, connection);
+    }
+
+    private void dispatch(MegaDConnection connection, byte[] line, int length, long received) {
+        try {
+            listener.callbackReceived(connection.hostAddress, connection.controllerId, line, length, received);
+        } catch (RuntimeException e) {
+            logger.warn("Cannot parse request from {}: {}", connection.hostAddress, e.getMessage());
+        }
+    }
+
+    private void closeExpiredConnections(Selector selector) {
+        long now = System.nanoTime();
+        if (TimeUnit.NANOSECONDS.toMillis(now - lastSweep) < SWEEP_INTERVAL) {
+            return;
+        }
+        lastSweep = now;
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof MegaDConnection && now - ((MegaDConnection) attachment).deadline > 0) {
+                MegaDConnection connection = (MegaDConnection) attachment;
+                if (connection.requestStarted || connection.response != null) {
+                    logger.debug("Request from {} timed out, closing", connection.hostAddress);
+                    stats.timedOut();
+                }
+                closeConnection(key);
+            }
+        }
+    }
+
+    private void closeConnection(SelectionKey key) {
+        if (key.attachment() instanceof MegaDConnection && key.isValid()) {
+            stats.closed();
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            logger.debug("{}", e.getLocalizedMessage());
+        }
+    }
+
+    private void closeAll(Selector selector) {
+        for (SelectionKey key : selector.keys()) {
+            closeConnection(key);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("{}", e.getLocalizedMessage());
+        }
+        serverChannel = null;
+        this.selector = null;
+    }
+
+    /**
+     * State of one accepted connection.
+     */
+    private static class MegaDConnection {
+        final SocketChannel channel;
+        final String hostAddress;
+        final int controllerId;
+        final ByteBuffer readBuffer;
+        final ByteBuffer closeResponse = MegaDHttpProtocol.responseBuffer(false);
+        final ByteBuffer keepAliveResponse = MegaDHttpProtocol.responseBuffer(true);
+        @Nullable
+        ByteBuffer response;
+        int scanned;
+        long deadline;
+        // when the connection was accepted or the first byte of the current request was read, 0 if not yet
+        long requestStart;
+        boolean requestStarted;
+        boolean inHeaders;
+        boolean http10;
+        int connectionHeader;
+        boolean persistent;
+
+        MegaDConnection(SocketChannel channel, String hostAddress, int controllerId, int maxLineLength,
+                long accepted, long deadline) {
+            this.channel = channel;
+            this.hostAddress = hostAddress;
+            this.controllerId = controllerId;
+            this.readBuffer = ByteBuffer.allocate(maxLineLength);
+            this.requestStart = accepted;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return when the current request started, the next one starts with its first byte read
+         */
+        long takeRequestStart() {
+            long start = requestStart;
+            requestStart = 0;
+            // a pipelined request was read together with the previous one
+            return start != 0 ? start : System.nanoTime();
+        }
+
+        int findLineEnd() {
+            byte[] bytes = readBuffer.array();
+            for (int end = readBuffer.position(); scanned < end; scanned++) {
+                if (bytes[scanned] == '\n') {
+                    return scanned;
+                }
+            }
+            return -1;
+        }
+
+        int lineLength(int lineEnd) {
+            if (lineEnd > 0 && readBuffer.array()[lineEnd - 1] == '\r') {
+                return lineEnd - 1;
+            }
+            return lineEnd;
+        }
+
+        /**
+         * Drops the given number of bytes from the start of the buffer.
+         */
+        void consume(int count) {
+            byte[] bytes = readBuffer.array();
+            int remaining = readBuffer.position() - count;
+            System.arraycopy(bytes, count, bytes, 0, remaining);
+            readBuffer.position(remaining);
+            scanned = 0;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link MegaDOverflowPolicy} decides what happens to an incoming event when the {@link MegaDEventQueue} is
+ * full.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public enum MegaDOverflowPolicy {
+    /** the network thread waits for free space */
+    BLOCK,
+    /** the oldest queued event is dropped */
+    DROP_OLDEST,
+    /** state reports are dropped, other events wait for free space */
+    DROP_STATE_REPORTS;
+
+    /**
+     * @return the policy with the given name, or {@link #BLOCK} for unknown names
+     */
+    public static MegaDOverflowPolicy parse(@Nullable String name) {
+        if (name != null) {
+            for (MegaDOverflowPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name.trim())) {
+                    return policy;
+                }
+            }
+        }
+        return BLOCK;
+    }
+}
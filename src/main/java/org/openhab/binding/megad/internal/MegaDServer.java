@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.io.IOException;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link MegaDServer} is the common contract of the servers accepting megad callbacks.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public interface MegaDServer extends Runnable {
+
+    /**
+     * Binds the listening socket. Must be called before the server thread is started.
+     */
+    void open() throws IOException;
+
+    /**
+     * Stops accepting connections and releases the listening socket.
+     */
+    void close();
+
+    boolean isRunning();
+
+    int getLocalPort();
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link MegaDServerStats} counts the connections of the bridge servers. One instance is shared by all
+ * listeners of a bridge, so the connection limit applies to all of them together.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public final class MegaDServerStats {
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder oversized = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final AtomicInteger open = new AtomicInteger();
+
+    /**
+     * Counts a newly accepted connection, unless the limit of open connections is reached.
+     *
+     * @return false if the connection must be rejected
+     */
+    boolean tryOpen(int maxConnections) {
+        accepted.increment();
+        if (open.incrementAndGet() > maxConnections) {
+            open.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    void closed() {
+        open.decrementAndGet();
+    }
+
+    void timedOut() {
+        timedOut.increment();
+    }
+
+    void oversized() {
+        oversized.increment();
+    }
+
+    void invalid() {
+        invalid.increment();
+    }
+
+    /**
+     * @return connections accepted, including rejected ones
+     */
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * @return connections closed right away because too many were open
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return connections closed because a request did not arrive in time
+     */
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    /**
+     * @return connections closed because a request line or header exceeded the maximum length
+     */
+    public long getOversized() {
+        return oversized.sum();
+    }
+
+    /**
+     * @return connections closed because they did not start with a GET request
+     */
+    public long getInvalid() {
+        return invalid.sum();
+    }
+
+    public int getOpen() {
+        return open.get();
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Set;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link MegaDSocketOptions} gives access to SO_REUSEPORT, which lets several listeners bind the same port and
+ * makes the kernel spread incoming connections over them. The option exists since Java 9 and is only supported by
+ * some systems, Linux among them, so it is looked up at runtime.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public final class MegaDSocketOptions {
+
+    private static final @Nullable SocketOption<Boolean> SO_REUSEPORT = lookupReusePort();
+
+    private MegaDSocketOptions() {
+    }
+
+    /**
+     * @return true if the JVM and the system allow several listeners on one port
+     */
+    public static boolean isReusePortAvailable() {
+        return SO_REUSEPORT != null;
+    }
+
+    /**
+     * Enables SO_REUSEPORT on an unbound channel.
+     *
+     * @throws IOException if the option is not available
+     */
+    public static void enableReusePort(NetworkChannel channel) throws IOException {
+        channel.setOption(reusePort(), true);
+    }
+
+    /**
+     * Enables SO_REUSEPORT on an unbound server socket.
+     *
+     * @throws IOException if the option is not available
+     */
+    public static void enableReusePort(ServerSocket socket) throws IOException {
+        SocketOption<Boolean> option = reusePort();
+        try {
+            Method setOption = ServerSocket.class.getMethod("setOption", SocketOption.class, Object.class);
+            setOption.invoke(socket, option, true);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("SO_REUSEPORT is not supported", e);
+        }
+    }
+
+    private static SocketOption<Boolean> reusePort() throws IOException {
+        SocketOption<Boolean> option = SO_REUSEPORT;
+        if (option == null) {
+            throw new IOException("SO_REUSEPORT is not supported");
+        }
+        return option;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static @Nullable SocketOption<Boolean> lookupReusePort() {
+        try {
+            SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class
+                    .getField("SO_REUSEPORT").get(null);
+            try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+                Set<SocketOption<?>> supported = probe.supportedOptions();
+                return supported.contains(option) ? option : null;
+            }
+        } catch (ReflectiveOperationException | IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link MegaDTimingWheel} schedules the polls of all things of the binding on one thread, which sleeps until
+ * the next tick with a task due or with tasks to move down a level, not tick by tick. Tasks are run on the executor
+ * passed with them.
+ *
+ * The wheel has four levels of 64 slots. The first level holds the tasks due within 64 ticks, every further level
+ * 64 times as many; when a slot of a higher level comes up, its tasks move down to the level matching their
+ * remaining delay. Scheduling and cancelling take constant time however many things are polled.
+ *
+ * The thread ends when no task is left and is started again by the next one.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public final class MegaDTimingWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+    private static final double GOLDEN_RATIO_FRACTION = 0.6180339887498949;
+
+    private final Logger logger = LoggerFactory.getLogger(MegaDTimingWheel.class);
+
+    private final long tickNanos;
+    private final String threadName;
+    private final long origin = System.nanoTime();
+    private final Task[][] slots = new Task[LEVELS][SLOTS];
+    private final Map<String, AtomicInteger> phases = new ConcurrentHashMap<>();
+    private final LongAdder lagCount = new LongAdder();
+    private final LongAdder lagNanos = new LongAdder();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    private long currentTick;
+    private int taskCount;
+    private @Nullable Thread thread;
+
+    /**
+     * @param tickMillis resolution of the wheel
+     */
+    public MegaDTimingWheel(long tickMillis, String threadName) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        this.threadName = threadName;
+    }
+
+    /**
+     * Runs a task repeatedly at a fixed rate. A run never overlaps the previous one: if it takes longer than the
+     * period, the runs falling into it are skipped.
+     *
+     * @param initialDelayMillis delay of the first run, see {@link #spread(String, long)}
+     * @param executor runs the task
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long initialDelayMillis, long periodMillis, Executor executor) {
+        Task timeout = new Task(task, executor, TimeUnit.MILLISECONDS.toNanos(Math.max(1, periodMillis)));
+        timeout.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, initialDelayMillis));
+        synchronized (this) {
+            add(timeout);
+        }
+        return timeout;
+    }
+
+    /**
+     * Gives the tasks of one key, e.g. the things of a controller, evenly spread start offsets: the n-th task
+     * starts at the fractional part of n times the golden ratio of the period, so any number of tasks keeps the
+     * gaps between them within a factor of about 2.6.
+     *
+     * @return initial delay for the next task of the key
+     */
+    public long spread(String key, long periodMillis) {
+        int n = phases.computeIfAbsent(key, k -> new AtomicInteger()).getAndIncrement();
+        double fraction = (n * GOLDEN_RATIO_FRACTION) % 1.0;
+        return (long) (fraction * periodMillis);
+    }
+
+    /**
+     * @return number of scheduled tasks
+     */
+    public synchronized int size() {
+        return taskCount;
+    }
+
+    /**
+     * @return the largest delay between the due time of a run and its start since the last call, in nanoseconds
+     */
+    public long takeMaxLagNanos() {
+        return maxLagNanos.getAndSet(0);
+    }
+
+    /**
+     * @return number of runs started so far
+     */
+    public long getRuns() {
+        return lagCount.sum();
+    }
+
+    /**
+     * @return sum of the delays between due time and start of all runs so far, in nanoseconds
+     */
+    public long getTotalLagNanos() {
+        return lagNanos.sum();
+    }
+
+    /**
+     * A scheduled task.
+     */
+    public interface Timeout {
+        /**
+         * Stops further runs. A run already started completes.
+         */
+        void cancel();
+    }
+
+    /**
+     * @return the first tick at or after the given time
+     */
+    private long dueTick(long nanos) {
+        return Math.floorDiv(nanos - origin + tickNanos - 1, tickNanos);
+    }
+
+    /**
+     * @return the last tick at or before the given time
+     */
+    private long passedTick(long nanos) {
+        return Math.floorDiv(nanos - origin, tickNanos);
+    }
+
+    /**
+     * Puts a task into the slot matching its due time. Must hold the lock.
+     */
+    private void add(Task task) {
+        if (task.cancelled) {
+            return;
+        }
+        if (taskCount++ == 0) {
+            // the clock did not advance while the wheel was empty
+            currentTick = passedTick(System.nanoTime());
+        }
+        insert(task, currentTick + 1);
+        Thread wheelThread = thread;
+        if (wheelThread == null) {
+            wheelThread = new Thread(this::run, threadName);
+            wheelThread.setDaemon(true);
+            thread = wheelThread;
+            wheelThread.start();
+        } else {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @param earliestTick tick to run the task at if it is overdue
+     */
+    private void insert(Task task, long earliestTick) {
+        long dueTick = Math.max(dueTick(task.due), earliestTick);
+        long delta = Math.min(dueTick - currentTick, MAX_TICKS);
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((currentTick + delta) >>> (SLOT_BITS * level)) & (SLOTS - 1);
+        task.level = level;
+        task.slot = slot;
+        task.previous = null;
+        Task head = slots[level][slot];
+        task.next = head;
+        if (head != null) {
+            head.previous = task;
+        }
+        slots[level][slot] = task;
+    }
+
+    private void unlink(Task task) {
+        Task previous = task.previous;
+        Task next = task.next;
+        if (previous != null) {
+            previous.next = next;
+        } else if (slots[task.level][task.slot] == task) {
+            slots[task.level][task.slot] = next;
+        }
+        if (next != null) {
+            next.previous = previous;
+        }
+        task.previous = null;
+        task.next = null;
+        task.slot = -1;
+    }
+
+    private synchronized void cancel(Task task) {
+        task.cancelled = true;
+        if (task.slot >= 0) {
+            unlink(task);
+            taskCount--;
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Task expired;
+                synchronized (this) {
+                    if (taskCount == 0) {
+                        thread = null;
+                        return;
+                    }
+                    long wait = origin + nextEventTick() * tickNanos - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, wait);
+                        continue;
+                    }
+                    expired = advance(passedTick(System.nanoTime()));
+                }
+                while (expired != null) {
+                    Task next = expired.next;
+                    expired.next = null;
+                    start(expired);
+                    expired = next;
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                thread = null;
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the next tick that runs a task or moves tasks down a level; the tasks of a slot of level n move down
+     *         when the current tick reaches a multiple of 64^n with the slot's index at that level. Must hold the
+     *         lock.
+     */
+    private long nextEventTick() {
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = SLOT_BITS * level;
+            long current = currentTick >>> shift;
+            for (long index = current + 1; index <= current + SLOTS; index++) {
+                if (slots[level][(int) index & (SLOTS - 1)] != null) {
+                    next = Math.min(next, index << shift);
+                    break;
+                }
+            }
+        }
+        return next != Long.MAX_VALUE ? next : currentTick + 1;
+    }
+
+    /**
+     * Moves the wheel forward to the given tick. Must hold the lock.
+     *
+     * @return the tasks that are due, linked by {@link Task#next}
+     */
+    private @Nullable Task advance(long nowTick) {
+        Task expired = null;
+        while (currentTick < nowTick && taskCount > 0) {
+            currentTick++;
+            for (int level = 1; level < LEVELS; level++) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                    break;
+                }
+                cascade(level, (int) (currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+            }
+            int slot = (int) currentTick & (SLOTS - 1);
+            Task task = slots[0][slot];
+            slots[0][slot] = null;
+            while (task != null) {
+                Task next = task.next;
+                task.previous = null;
+                task.slot = -1;
+                if (dueTick(task.due) > currentTick) {
+                    // delay was longer than the wheel, go round once more
+                    insert(task, currentTick + 1);
+                } else {
+                    taskCount--;
+                    task.next = expired;
+                    expired = task;
+                }
+                task = next;
+            }
+        }
+        if (taskCount == 0) {
+            currentTick = nowTick;
+        }
+        return expired;
+    }
+
+    private void cascade(int level, int slot) {
+        Task task = slots[level][slot];
+        slots[level][slot] = null;
+        while (task != null) {
+            Task next = task.next;
+            // tasks due at the current tick go to the slot processed right after the cascade
+            insert(task, currentTick);
+            task = next;
+        }
+    }
+
+    private void start(Task task) {
+        try {
+            task.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Poll task rejected: {}", e.getMessage());
+            reschedule(task, System.nanoTime());
+        }
+    }
+
+    private void reschedule(Task task, long now) {
+        long missed = Math.max(0, (now - task.due) / task.periodNanos);
+        task.due += (missed + 1) * task.periodNanos;
+        synchronized (this) {
+            add(task);
+        }
+    }
+
+    private void recordLag(long nanos) {
+        lagCount.increment();
+        lagNanos.add(nanos);
+        maxLagNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private class Task implements Runnable, Timeout {
+        final Runnable task;
+        final Executor executor;
+        final long periodNanos;
+        long due;
+        volatile boolean cancelled;
+        int level;
+        int slot = -1;
+        @Nullable
+        Task previous;
+        @Nullable
+        Task next;
+
+        Task(Runnable task, Executor executor, long periodNanos) {
+            this.task = task;
+            this.executor = executor;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            long started = System.nanoTime();
+            recordLag(Math.max(0, started - due));
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.warn("Poll task failed: {}", e.getMessage(), e);
+            } finally {
+                reschedule(this, System.nanoTime());
+            }
+        }
+
+        @Override
+        public void cancel() {
+            MegaDTimingWheel.this.cancel(this);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+import org.openhab.binding.megad.internal.MegaDEvent;
+import org.openhab.binding.megad.internal.MegaDEventParser;
+import org.openhab.binding.megad.internal.MegaDEventQueue;
+import org.openhab.binding.megad.internal.MegaDOverflowPolicy;
+
+/**
+ * Checks that parsing callbacks, splitting a bulk status into ports and passing events through the queue do not
+ * allocate once warmed up. The handlers still allocate the states they post.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public class MegaDAllocationTest {
+
+    private static final int WARM_UP = 50_000;
+    private static final int RUNS = 100_000;
+    // a few bytes for the measurement itself, far below one byte per run
+    private static final long SLACK_BYTES = 4096;
+
+    private static final byte[][] CALLBACKS = { bytes("GET /megad.php?pt=1 HTTP/1.1"),
+            bytes("GET /megad.php?pt=1&m=1 HTTP/1.1"), bytes("GET /megad.php?pt=1&click=2 HTTP/1.1"),
+            bytes("GET /megad.php?pt=1&cnt=15 HTTP/1.1"), bytes("GET /megad.php?pt=7&v=128 HTTP/1.1"),
+            bytes("GET /megad.php?pt=30&wg=ec532f HTTP/1.1"),
+            bytes("GET /megad.php?sms_phone=79001234567&sms_text=test HTTP/1.1") };
+    private static final byte[] BULK = bytes("GET /megad.php?all=ON;OFF/3;255;temp:24.5/hum:40;OFF HTTP/1.1");
+
+    private final MegaDEvent event = new MegaDEvent();
+    private final MegaDEvent portEvent = new MegaDEvent();
+    private final MegaDPortStateTable portStates = new MegaDPortStateTable();
+    private final MegaDEventQueue queue = new MegaDEventQueue(64, MegaDOverflowPolicy.BLOCK);
+    private final MegaDEventQueue.Consumer consumer = (hostAddress, controllerId, received) -> {
+    };
+
+    @Test
+    public void parsingDoesNotAllocate() {
+        assertNoAllocation(i -> {
+            byte[] line = CALLBACKS[i % CALLBACKS.length];
+            assertTrue(MegaDEventParser.parse(line, line.length, event));
+        });
+    }
+
+    @Test
+    public void bulkSplitDoesNotAllocate() {
+        assertNoAllocation(i -> {
+            MegaDEventParser.parse(BULK, BULK.length, event);
+            int position = 0;
+            for (int port = 0; (position = MegaDEventParser.nextBulkPort(event, position, port,
+                    portEvent)) >= 0; port++) {
+                portStates.update(portEvent);
+            }
+        });
+    }
+
+    @Test
+    public void queueDoesNotAllocate() {
+        byte[] line = CALLBACKS[0];
+        MegaDEventParser.parse(line, line.length, event);
+        assertNoAllocation(i -> {
+            assertTrue(queue.offer("127.0.0.2", 0, event));
+            assertTrue(queue.poll(consumer));
+        });
+    }
+
+    private interface Run {
+        void run(int i);
+    }
+
+    private static void assertNoAllocation(Run run) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < WARM_UP; i++) {
+            run.run(i);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < RUNS; i++) {
+            run.run(i);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue("allocated " + allocated + " bytes in " + RUNS + " runs", allocated < SLACK_BYTES);
+    }
+
+    private static byte[] bytes(String line) {
+        return line.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import static org.junit.Assert.*;
+import static org.openhab.binding.megad.internal.MegaDEventType.*;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+import org.openhab.binding.megad.MegaDBindingConstants;
+import org.openhab.binding.megad.internal.MegaDEventType;
+
+/**
+ * Checks that every channel is updated by the same events as with the chain of channel checks
+ * {@link MegaDHandler#updateValues} used before {@link MegaDChannelKind}.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public class MegaDChannelKindTest {
+
+    private static final Set<MegaDEventType> ALL = EnumSet.allOf(MegaDEventType.class);
+    private static final Set<MegaDEventType> VALUES = EnumSet.of(VALUE, BULK);
+
+    @Test
+    public void channelsTakeTheEventsTheyTookBefore() {
+        Map<String, Set<MegaDEventType>> expected = new LinkedHashMap<>();
+        expected.put(MegaDBindingConstants.CHANNEL_IN, ALL);
+        expected.put(MegaDBindingConstants.CHANNEL_OUT, ALL);
+        expected.put(MegaDBindingConstants.CHANNEL_M2, ALL);
+        expected.put(MegaDBindingConstants.CHANNEL_CLICK, EnumSet.of(CLICK));
+        expected.put(MegaDBindingConstants.CHANNEL_DIMMER, VALUES);
+        expected.put(MegaDBindingConstants.CHANNEL_IB, EnumSet.of(IBUTTON));
+        expected.put(MegaDBindingConstants.CHANNEL_WIEGAND, EnumSet.of(WIEGAND));
+        expected.put(MegaDBindingConstants.CHANNEL_INCOUNT, ALL);
+        expected.put(MegaDBindingConstants.CHANNEL_ONEWIRE, EnumSet.of(BULK));
+        // a value report fell through to the value of the port
+        expected.put(MegaDBindingConstants.CHANNEL_DHTTEMP, VALUES);
+        expected.put(MegaDBindingConstants.CHANNEL_DHTHUM, VALUES);
+        expected.put(MegaDBindingConstants.CHANNEL_SMS_PHONE, EnumSet.of(SMS));
+        expected.put(MegaDBindingConstants.CHANNEL_SMS_TEXT, EnumSet.of(SMS));
+        expected.put(MegaDBindingConstants.CHANNEL_CONTACT, ALL);
+        expected.put(MegaDBindingConstants.CHANNEL_I2C, EnumSet.complementOf(EnumSet.of(BULK)));
+        expected.put(MegaDBindingConstants.CHANNEL_TGET, EnumSet.noneOf(MegaDEventType.class));
+        expected.put(MegaDBindingConstants.CHANNEL_ST, EnumSet.of(STATUS));
+        // no channel of their own, the value of the port
+        expected.put(MegaDBindingConstants.CHANNEL_ADC, VALUES);
+        expected.put(MegaDBindingConstants.CHANNEL_AT, VALUES);
+        expected.put(MegaDBindingConstants.CHANNEL_RAWIN, VALUES);
+        expected.put(MegaDBindingConstants.CHANNEL_I2C_DISPLAY, VALUES);
+
+        for (Map.Entry<String, Set<MegaDEventType>> entry : expected.entrySet()) {
+            MegaDChannelKind kind = MegaDChannelKind.of(entry.getKey());
+            for (MegaDEventType type : MegaDEventType.values()) {
+                assertEquals(entry.getKey() + " on " + type, entry.getValue().contains(type) ? 1 : 0,
+                        kind.accepts(type) ? 1 : 0);
+            }
+        }
+    }
+
+    @Test
+    public void otherChannelsShowTheValue() {
+        assertEquals(MegaDChannelKind.VALUE, MegaDChannelKind.of(MegaDBindingConstants.CHANNEL_RAWIN));
+        assertEquals(MegaDChannelKind.VALUE, MegaDChannelKind.of(MegaDBindingConstants.CHANNEL_I2C_DISPLAY));
+        assertEquals(MegaDChannelKind.AT, MegaDChannelKind.of(MegaDBindingConstants.CHANNEL_AT));
+    }
+}
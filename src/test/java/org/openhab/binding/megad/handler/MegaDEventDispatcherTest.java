@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+import org.openhab.binding.megad.internal.MegaDEvent;
+import org.openhab.binding.megad.internal.MegaDEventParser;
+import org.openhab.binding.megad.internal.MegaDEventType;
+import org.openhab.binding.megad.internal.MegaDOverflowPolicy;
+
+/**
+ * Tests of the {@link MegaDEventDispatcher}.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public class MegaDEventDispatcherTest {
+
+    private static final int CONTROLLERS = 3;
+    private static final int EVENTS = 2000;
+
+    /**
+     * Bulk status and pushes of a port of the same controller must reach the handlers in the order they arrived,
+     * and never on two threads at once.
+     */
+    @Test
+    public void bulkStatusAndPortPushKeepTheirOrder() throws InterruptedException {
+        List<List<String>> received = new ArrayList<>();
+        AtomicInteger[] inFlight = new AtomicInteger[CONTROLLERS];
+        for (int i = 0; i < CONTROLLERS; i++) {
+            received.add(new ArrayList<>());
+            inFlight[i] = new AtomicInteger();
+        }
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(CONTROLLERS * EVENTS * 2);
+        MegaDEventDispatcher dispatcher = new MegaDEventDispatcher(4, 64, MegaDOverflowPolicy.BLOCK,
+                (hostAddress, controllerId, event) -> {
+                    if (inFlight[controllerId].incrementAndGet() != 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    received.get(controllerId).add(
+                            event.getType() == MegaDEventType.BULK ? "all" : "cnt=" + event.getCounter());
+                    inFlight[controllerId].decrementAndGet();
+                    done.countDown();
+                }, "test-dispatcher");
+        dispatcher.start();
+        try {
+            MegaDEvent bulk = parse("GET /?all=ON;OFF;ON/3", new MegaDEvent());
+            MegaDEvent push = new MegaDEvent();
+            for (int i = 0; i < EVENTS; i++) {
+                for (int controller = 0; controller < CONTROLLERS; controller++) {
+                    assertTrue(dispatcher.dispatch("192.168.0." + controller, controller, bulk));
+                    parse("GET /?pt=2&cnt=" + i, push);
+                    assertTrue(dispatcher.dispatch("192.168.0." + controller, controller, push));
+                }
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            dispatcher.stop();
+        }
+
+        assertEquals(0, overlaps.get());
+        for (int controller = 0; controller < CONTROLLERS; controller++) {
+            List<String> events = received.get(controller);
+            assertEquals(EVENTS * 2, events.size());
+            for (int i = 0; i < EVENTS; i++) {
+                assertEquals("all", events.get(i * 2));
+                assertEquals("cnt=" + i, events.get(i * 2 + 1));
+            }
+        }
+    }
+
+    private static MegaDEvent parse(String line, MegaDEvent event) {
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        assertTrue(MegaDEventParser.parse(bytes, bytes.length, event));
+        return event;
+    }
+}
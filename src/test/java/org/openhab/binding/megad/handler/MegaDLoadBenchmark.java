@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.handler;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+import org.openhab.binding.megad.MegaDConfiguration;
+import org.openhab.binding.megad.internal.MegaDCallbackListener;
+import org.openhab.binding.megad.internal.MegaDEvent;
+import org.openhab.binding.megad.internal.MegaDEventParser;
+import org.openhab.binding.megad.internal.MegaDHttpServer;
+import org.openhab.binding.megad.internal.MegaDOverflowPolicy;
+import org.openhab.binding.megad.internal.MegaDServerStats;
+
+/**
+ * The {@link MegaDLoadBenchmark} simulates controllers sending callbacks to the bridge server and reports the
+ * achieved event rate and the latency percentiles of {@link MegaDBridgeMetrics}.
+ *
+ * The server, parser, dispatcher and metrics are those of the bridge; the dispatcher passes the events to a
+ * consumer recording their latency instead of to the handlers. Every virtual controller connects from its own
+ * loopback address, 127.0.0.2 and up, or from 127.0.0.1 where the system only has that one, and sends the
+ * callback formats of "Mega API.txt" in turn at a fixed rate.
+ *
+ * Skipped unless enabled:
+ *
+ * <pre>
+ * mvn test -Dtest=MegaDLoadBenchmark -Dmegad.benchmark=true -Dmegad.controllers=10 -Dmegad.rate=50
+ * </pre>
+ *
+ * Further properties: megad.duration (seconds), megad.dispatchThreads, megad.queries (comma separated query
+ * strings replacing the default mix).
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public class MegaDLoadBenchmark {
+
+    private static final String[] QUERIES = { "pt=1", "pt=1&m=1", "pt=1&m=2", "pt=1&click=2", "pt=1&cnt=15",
+            "pt=7&v=128", "pt=30&wg=ec532f", "pt=22&ext0=1", "sms_phone=79001234567&sms_text=test",
+            "all=ON;OFF/3;255;temp:24.5/hum:40" };
+    private static final long WARM_UP_SECONDS = 2;
+
+    private final MegaDBridgeMetrics metrics = new MegaDBridgeMetrics();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @Test
+    public void ingestLoad() throws Exception {
+        assumeTrue(Boolean.getBoolean("megad.benchmark"));
+        int controllers = Integer.getInteger("megad.controllers", 10);
+        int rate = Integer.getInteger("megad.rate", 50);
+        int duration = Integer.getInteger("megad.duration", 10);
+        String mix = System.getProperty("megad.queries");
+        String[] queries = mix != null ? mix.split(",") : QUERIES;
+
+        MegaDConfiguration configuration = new MegaDConfiguration();
+        configuration.maxConnections = Math.max(configuration.maxConnections, controllers * 4);
+        MegaDEventDispatcher dispatcher = new MegaDEventDispatcher(Integer.getInteger("megad.dispatchThreads", 0),
+                configuration.queueCapacity, MegaDOverflowPolicy.BLOCK, (hostAddress, controllerId, event) -> {
+                    metrics.recordLatency(System.nanoTime() - event.getReceivedNanos());
+                    processed.increment();
+                }, "benchmark-dispatcher");
+        Map<String, Integer> controllerIds = new HashMap<>();
+        InetAddress[] addresses = new InetAddress[controllers];
+        for (int i = 0; i < controllers; i++) {
+            addresses[i] = sourceAddress(i);
+            controllerIds.putIfAbsent(addresses[i].getHostAddress(), i);
+        }
+        ThreadLocal<MegaDEvent> events = ThreadLocal.withInitial(MegaDEvent::new);
+        MegaDHttpServer server = new MegaDHttpServer(configuration, 0, false, new MegaDServerStats(),
+                new MegaDCallbackListener() {
+                    @Override
+                    public int resolveController(String hostAddress) {
+                        return controllerIds.getOrDefault(hostAddress, UNKNOWN_CONTROLLER);
+                    }
+
+                    @Override
+                    public void callbackReceived(String hostAddress, int controllerId, byte[] requestLine,
+                            int length, long receivedNanos) {
+                        MegaDEvent event = events.get();
+                        if (MegaDEventParser.parse(requestLine, length, event)) {
+                            event.setReceivedNanos(receivedNanos);
+                            dispatcher.dispatch(hostAddress, controllerId, event);
+                        }
+                    }
+                });
+        server.open();
+        Thread serverThread = new Thread(server, "benchmark-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        dispatcher.start();
+
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(
+                Math.min(controllers, Runtime.getRuntime().availableProcessors() * 4), runnable -> {
+                    Thread thread = new Thread(runnable, "benchmark-controller");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            long periodNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+            for (int i = 0; i < controllers; i++) {
+                InetAddress address = addresses[i];
+                AtomicInteger next = new AtomicInteger();
+                senders.scheduleAtFixedRate(
+                        () -> send(address, server.getLocalPort(),
+                                queries[Math.floorMod(next.getAndIncrement(), queries.length)]),
+                        periodNanos * i / controllers, periodNanos, TimeUnit.NANOSECONDS);
+            }
+
+            TimeUnit.SECONDS.sleep(WARM_UP_SECONDS);
+            metrics.takeLatencyPercentiles(0.5);
+            long startSent = sent.sum();
+            long startProcessed = processed.sum();
+            long start = System.nanoTime();
+            TimeUnit.SECONDS.sleep(duration);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long[] latencies = metrics.takeLatencyPercentiles(0.5, 0.95, 0.99);
+
+            System.out.printf("%d controllers at %d requests/s each, target %d events/s%n", controllers, rate,
+                    controllers * rate);
+            System.out.printf("sent %.0f requests/s, processed %.0f events/s, %d failed requests, %d dropped%n",
+                    (sent.sum() - startSent) / seconds, (processed.sum() - startProcessed) / seconds, failed.sum(),
+                    dispatcher.getDropped());
+            System.out.printf("latency p50 %.3f ms, p95 %.3f ms, p99 %.3f ms%n", latencies[0] / 1e6,
+                    latencies[1] / 1e6, latencies[2] / 1e6);
+        } finally {
+            senders.shutdownNow();
+            server.close();
+            dispatcher.stop();
+        }
+    }
+
+    /**
+     * Sends one callback the way megad does: a new connection with an HTTP/1.0 request, read until closed.
+     */
+    private void send(InetAddress source, int port, String query) {
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(5000);
+            socket.bind(new InetSocketAddress(source, 0));
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /megad.php?" + query + " HTTP/1.0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[256];
+            while (in.read(buffer) >= 0) {
+                // skip the response
+            }
+            sent.increment();
+        } catch (IOException e) {
+            failed.increment();
+        }
+    }
+
+    private static InetAddress sourceAddress(int controller) throws IOException {
+        InetAddress address = InetAddress.getByAddress(new byte[] { 127, 0, 0, (byte) (2 + controller % 250) });
+        try (Socket probe = new Socket()) {
+            probe.bind(new InetSocketAddress(address, 0));
+            return address;
+        } catch (IOException e) {
+            // only 127.0.0.1 is configured, the controllers share it
+            return InetAddress.getLoopbackAddress();
+        }
+    }
+}
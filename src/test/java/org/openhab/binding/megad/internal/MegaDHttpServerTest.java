@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.megad.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Test;
+import org.openhab.binding.megad.MegaDConfiguration;
+
+/**
+ * Checks that the {@link MegaDHttpServer} keeps listening when accepting a connection fails.
+ *
+ * @author Petr Shatsillo - Initial contribution
+ */
+@NonNullByDefault
+public class MegaDHttpServerTest {
+
+    @Test
+    public void acceptFailureKeepsListening() throws Exception {
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch received = new CountDownLatch(1);
+        MegaDHttpServer server = new MegaDHttpServer(new MegaDConfiguration(), 0, false, new MegaDServerStats(),
+                new MegaDCallbackListener() {
+                    @Override
+                    public int resolveController(String hostAddress) {
+                        return UNKNOWN_CONTROLLER;
+                    }
+
+                    @Override
+                    public void callbackReceived(String hostAddress, int controllerId, byte[] requestLine,
+                            int length, long receivedNanos) {
+                        received.countDown();
+                    }
+                }) {
+            @Override
+            @Nullable
+            SocketChannel acceptConnection(ServerSocketChannel serverChannel) throws IOException {
+                if (failures.getAndIncrement() == 0) {
+                    throw new IOException("Too many open files");
+                }
+                return super.acceptConnection(serverChannel);
+            }
+        };
+        server.open();
+        Thread thread = new Thread(server, "megad-server-test");
+        thread.setDaemon(true);
+        thread.start();
+        try (Socket socket = new Socket()) {
+            socket.setSoTimeout(5000);
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), 5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /megad.php?pt=1 HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            // the connection waits in the backlog until accepting is resumed
+            assertTrue("callback not received after a failed accept", received.await(5, TimeUnit.SECONDS));
+            InputStream in = socket.getInputStream();
+            while (in.read() >= 0) {
+                // skip the response
+            }
+            assertTrue(failures.get() >= 2);
+            assertTrue(server.isRunning());
+        } finally {
+            server.close();
+            thread.join(5000);
+        }
+    }
+}